@@ -0,0 +1,40 @@
+package com.amolg.flutterbarcodescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The duplicate filter of continuous scanning, for a code that stays in view and for a stream of
+ * distinct codes that keeps evicting the oldest entries.
+ */
+@State(Scope.Thread)
+public class BarcodeDeduplicatorBenchmark {
+    private static final int CAPACITY = 256;
+
+    private final BarcodeDeduplicator deduplicator = new BarcodeDeduplicator(2000, CAPACITY);
+    private final String[] values = new String[CAPACITY * 4];
+    private long nowMillis;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = String.valueOf(4006381333931L + i);
+        }
+    }
+
+    @Benchmark
+    public boolean repeatedCode() {
+        nowMillis += 33;
+        return deduplicator.isFirstSighting(32, values[0], nowMillis);
+    }
+
+    @Benchmark
+    public boolean distinctCodes() {
+        nowMillis += 33;
+        next = (next + 1) % values.length;
+        return deduplicator.isFirstSighting(32, values[next], nowMillis);
+    }
+}
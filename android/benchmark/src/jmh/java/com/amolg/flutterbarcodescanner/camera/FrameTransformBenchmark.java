@@ -0,0 +1,76 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Per-frame work done before detection: cropping to the scan window, the downscaled first pass,
+ * turning the luma plane upright for ZXing and measuring sharpness.  Frames have the preview size
+ * the plugin requests, in a heap buffer as Camera1 delivers them or a direct buffer as Camera2
+ * does.
+ */
+@State(Scope.Thread)
+public class FrameTransformBenchmark {
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1024;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private ByteBuffer frame;
+    private byte[] luma;
+    private byte[] rotated;
+    private final FrameCropper cropper = new FrameCropper();
+    private final FrameDownscaler downscaler = new FrameDownscaler();
+
+    @Setup
+    public void setUp() {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(42).nextBytes(data);
+        if (direct) {
+            frame = ByteBuffer.allocateDirect(data.length);
+            frame.put(data);
+            frame.position(0);
+        } else {
+            frame = ByteBuffer.wrap(data);
+        }
+        luma = data;
+        rotated = new byte[WIDTH * HEIGHT];
+
+        // The default barcode finder of a portrait preview
+        cropper.setRegion(0.1f, 0.35f, 0.9f, 0.65f);
+        cropper.setFrameGeometry(WIDTH, HEIGHT, 1);
+    }
+
+    @Benchmark
+    public byte[] crop() {
+        return cropper.crop(frame);
+    }
+
+    @Benchmark
+    public byte[] downscale2x() {
+        return downscaler.downscale(frame, WIDTH, HEIGHT, 2);
+    }
+
+    @Benchmark
+    public byte[] downscale4x() {
+        return downscaler.downscale(frame, WIDTH, HEIGHT, 4);
+    }
+
+    @Benchmark
+    public byte[] rotate90() {
+        FrameRotator.rotateLuma(luma, WIDTH, HEIGHT, 1, rotated);
+        return rotated;
+    }
+
+    @Benchmark
+    public float measureSharpness() {
+        return SharpnessGate.measure(frame, WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,32 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Mapping the corners of one detected barcode to overlay coordinates, as done for every graphic
+ * on every overlay draw.
+ */
+@State(Scope.Thread)
+public class OverlayTransformBenchmark {
+    private final OverlayTransform transform = new OverlayTransform();
+    private final float[] corners = {212, 96, 988, 96, 988, 301, 212, 301};
+
+    @Setup
+    public void setUp() {
+        transform.setPreviewSize(1024, 1600);
+        transform.setViewSize(1080, 1688);
+        transform.setFrameOffset(102, 560);
+    }
+
+    @Benchmark
+    public void translateCorners(Blackhole blackhole) {
+        for (int i = 0; i < corners.length; i += 2) {
+            blackhole.consume(transform.translateX(corners[i]));
+            blackhole.consume(transform.translateY(corners[i + 1]));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One round trip of a preview buffer: the camera delivers it, the pipeline looks it up and hands
+ * it back to be queued again.
+ */
+@State(Scope.Thread)
+public class PreviewBufferPoolBenchmark {
+    private final PreviewBufferPool pool = new PreviewBufferPool(4);
+    private long nowMillis;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        pool.allocate(1600 * 1024 * 3 / 2);
+        for (int i = 0; i < pool.getDepth(); ++i) {
+            pool.markQueued(0);
+        }
+    }
+
+    @Benchmark
+    public int frameRoundTrip() {
+        byte[] delivered = pool.getArray(next);
+        next = (next + 1) % pool.getDepth();
+        nowMillis += 33;
+
+        int slot = pool.indexOf(delivered);
+        pool.markDelivered(nowMillis);
+        ByteBuffer buffer = pool.getBuffer(slot);
+
+        int released = pool.indexOf(buffer);
+        pool.markQueued(nowMillis);
+        return released;
+    }
+}
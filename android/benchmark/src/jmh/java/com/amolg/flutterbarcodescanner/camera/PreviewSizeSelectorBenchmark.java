@@ -0,0 +1,30 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Preview size selection when the camera is opened, over the size lists of a typical phone.
+ */
+@State(Scope.Thread)
+public class PreviewSizeSelectorBenchmark {
+    private final int[] previewSizes = {
+            1920, 1080, 1600, 1200, 1440, 1080, 1280, 960, 1280, 720, 1024, 768, 960, 720,
+            800, 600, 720, 480, 640, 480, 352, 288, 320, 240, 176, 144
+    };
+    private final int[] pictureSizes = {
+            4032, 3024, 4032, 2268, 3264, 2448, 3264, 1836, 2592, 1944, 2048, 1536, 1920, 1080,
+            1600, 1200, 1280, 960, 1280, 720, 1024, 768, 800, 600, 640, 480, 320, 240
+    };
+
+    @Benchmark
+    public int[] selectSizePair() {
+        return PreviewSizeSelector.selectSizePair(previewSizes, pictureSizes, 1600, 1024, 0.01f);
+    }
+
+    @Benchmark
+    public int selectOptimalSize() {
+        return PreviewSizeSelector.selectOptimalSize(previewSizes, 1080, 1920);
+    }
+}
@@ -0,0 +1,123 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The detector thread delivering tracker callbacks for every code in view while the UI thread
+ * draws the overlay, with the graphics kept in a {@link SnapshotSet} and, for comparison, in a
+ * set guarded by one lock as the overlay used to do.  The time of the tracker operation is how
+ * long one frame's callbacks hold up the detection loop.
+ */
+@State(Scope.Group)
+public class SnapshotSetBenchmark {
+    // Roughly the cost of drawing one barcode graphic
+    private static final long DRAW_TOKENS = 200;
+
+    @Param({"1", "8", "32"})
+    public int codes;
+
+    private Object[] graphics;
+    private final SnapshotSet<Object> snapshotSet = new SnapshotSet<>();
+    private final LockedSet lockedSet = new LockedSet();
+    private int missing;
+
+    @Setup
+    public void setUp() {
+        graphics = new Object[codes];
+        for (int i = 0; i < codes; ++i) {
+            graphics[i] = new Object();
+            snapshotSet.add(graphics[i]);
+            lockedSet.add(graphics[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public void snapshotTrack() {
+        // Every code is updated, and one goes missing and is found again
+        for (Object graphic : graphics) {
+            snapshotSet.add(graphic);
+        }
+        Object graphic = nextMissing();
+        snapshotSet.remove(graphic);
+        snapshotSet.add(graphic);
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public int snapshotDraw() {
+        List<Object> items = snapshotSet.snapshot();
+        for (int i = 0; i < items.size(); ++i) {
+            Blackhole.consumeCPU(DRAW_TOKENS);
+        }
+        return items.size();
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public void lockedTrack() {
+        for (Object graphic : graphics) {
+            lockedSet.add(graphic);
+        }
+        Object graphic = nextMissing();
+        lockedSet.remove(graphic);
+        lockedSet.add(graphic);
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public int lockedDraw() {
+        return lockedSet.draw();
+    }
+
+    private Object nextMissing() {
+        // Only touched by the tracker thread of the group
+        missing = (missing + 1) % graphics.length;
+        return graphics[missing];
+    }
+
+    /**
+     * The graphics set as the overlay kept it before snapshots: a hash set that is drawn and
+     * changed under the same lock.
+     */
+    private static class LockedSet {
+        private final Object mLock = new Object();
+        private final Set<Object> mItems = new HashSet<>();
+
+        void add(Object item) {
+            synchronized (mLock) {
+                mItems.add(item);
+            }
+        }
+
+        void remove(Object item) {
+            synchronized (mLock) {
+                mItems.remove(item);
+            }
+        }
+
+        int draw() {
+            synchronized (mLock) {
+                for (Object ignored : mItems) {
+                    Blackhole.consumeCPU(DRAW_TOKENS);
+                }
+                return mItems.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DetectionSequencerTest {
+    private final List<String> delivered = new ArrayList<>();
+    private final DetectionSequencer<String> sequencer = new DetectionSequencer<>(delivered::add);
+
+    @Test
+    public void resultsAreHeldBackUntilOlderFramesComplete() {
+        DetectionSequencer.Ticket<String> first = sequencer.dispatch();
+        DetectionSequencer.Ticket<String> second = sequencer.dispatch();
+        DetectionSequencer.Ticket<String> third = sequencer.dispatch();
+
+        sequencer.complete(third, "third");
+        sequencer.complete(second, "second");
+        assertEquals(Collections.emptyList(), delivered);
+
+        sequencer.complete(first, "first");
+        assertEquals(Arrays.asList("first", "second", "third"), delivered);
+    }
+
+    @Test
+    public void inOrderResultsAreDeliveredImmediately() {
+        DetectionSequencer.Ticket<String> first = sequencer.dispatch();
+        DetectionSequencer.Ticket<String> second = sequencer.dispatch();
+
+        sequencer.complete(first, "first");
+        assertEquals(Collections.singletonList("first"), delivered);
+
+        sequencer.complete(second, "second");
+        assertEquals(Arrays.asList("first", "second"), delivered);
+    }
+
+    @Test
+    public void framesWithoutResultAreSkipped() {
+        DetectionSequencer.Ticket<String> first = sequencer.dispatch();
+        DetectionSequencer.Ticket<String> second = sequencer.dispatch();
+        DetectionSequencer.Ticket<String> third = sequencer.dispatch();
+
+        sequencer.complete(third, "third");
+        sequencer.complete(first, null);
+        assertEquals(Collections.emptyList(), delivered);
+
+        sequencer.complete(second, "second");
+        assertEquals(Arrays.asList("second", "third"), delivered);
+    }
+
+    @Test
+    public void resetDropsOutstandingTickets() {
+        DetectionSequencer.Ticket<String> stale = sequencer.dispatch();
+        sequencer.reset();
+
+        DetectionSequencer.Ticket<String> next = sequencer.dispatch();
+        sequencer.complete(next, "next");
+        sequencer.complete(stale, "stale");
+        assertEquals(Collections.singletonList("next"), delivered);
+    }
+}
@@ -0,0 +1,96 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCropperTest {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 80;
+
+    @Test
+    public void oddOffsetsSnapToEvenChromaAlignment() {
+        FrameCropper cropper = new FrameCropper();
+        cropper.setFrameGeometry(WIDTH, HEIGHT, 0);
+        // 5 px from the left and top, 45 px and 35 px across.
+        cropper.setRegion(0.05f, 0.0625f, 0.5f, 0.5f);
+
+        assertEquals(4, cropper.getUprightOffsetX());
+        assertEquals(4, cropper.getUprightOffsetY());
+        assertEquals(46, cropper.getCropWidth());
+        assertEquals(36, cropper.getCropHeight());
+    }
+
+    @Test
+    public void cropCopiesLumaAndTheMatchingChromaRows() {
+        byte[] frame = numberedFrame(WIDTH, HEIGHT);
+        FrameCropper cropper = new FrameCropper();
+        cropper.setFrameGeometry(WIDTH, HEIGHT, 0);
+        cropper.setRegion(0.05f, 0.0625f, 0.5f, 0.5f);
+
+        byte[] heap = cropper.crop(ByteBuffer.wrap(frame)).clone();
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+        direct.put(frame);
+        direct.position(0);
+        byte[] fromDirect = cropper.crop(direct);
+
+        int width = cropper.getCropWidth();
+        int height = cropper.getCropHeight();
+        int chroma = WIDTH * HEIGHT;
+        assertEquals(frame[4 * WIDTH + 4], heap[0]);
+        assertEquals(frame[(4 + height - 1) * WIDTH + 4 + width - 1], heap[width * height - 1]);
+        // The VU row for luma rows 4 and 5 is chroma row 2, starting on an even column.
+        assertEquals(frame[chroma + 2 * WIDTH + 4], heap[width * height]);
+        assertEquals(frame[chroma + 2 * WIDTH + 5], heap[width * height + 1]);
+        int size = width * height + width * (height / 2);
+        assertArrayEquals(Arrays.copyOf(heap, size), Arrays.copyOf(fromDirect, size));
+    }
+
+    @Test
+    public void rotatedOffsetsStayEven() {
+        FrameCropper cropper = new FrameCropper();
+        cropper.setFrameGeometry(WIDTH, HEIGHT, 1);
+        cropper.setRegion(0.1f, 0.13f, 0.77f, 0.61f);
+
+        assertEquals(0, cropper.getUprightOffsetX() % 2);
+        assertEquals(0, cropper.getUprightOffsetY() % 2);
+        assertEquals(0, cropper.getCropWidth() % 2);
+        assertEquals(0, cropper.getCropHeight() % 2);
+    }
+
+    @Test
+    public void oddFrameSizeIsCroppedToEvenSize() {
+        FrameCropper cropper = new FrameCropper();
+        cropper.setFrameGeometry(WIDTH + 1, HEIGHT + 1, 0);
+        cropper.setRegion(0.0f, 0.0f, 1.0f, 1.0f);
+
+        assertEquals(WIDTH, cropper.getCropWidth());
+        assertEquals(HEIGHT, cropper.getCropHeight());
+        assertFalse(cropper.isFullFrame());
+    }
+
+    @Test
+    public void degenerateRegionFallsBackToFullFrame() {
+        FrameCropper cropper = new FrameCropper();
+        cropper.setFrameGeometry(WIDTH, HEIGHT, 0);
+        cropper.setRegion(0.5f, 0.5f, 0.5f, 0.5f);
+
+        assertTrue(cropper.isFullFrame());
+        assertEquals(0, cropper.getUprightOffsetX());
+        assertEquals(0, cropper.getUprightOffsetY());
+    }
+
+    private static byte[] numberedFrame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i * 31);
+        }
+        return frame;
+    }
+}
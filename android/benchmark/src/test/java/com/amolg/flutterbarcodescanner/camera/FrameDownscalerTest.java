@@ -0,0 +1,77 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameDownscalerTest {
+    @Test
+    public void oddSizesRoundDownToEvenOutput() {
+        FrameDownscaler downscaler = new FrameDownscaler();
+
+        downscaler.downscale(ByteBuffer.wrap(new byte[101 * 75 * 3 / 2]), 101, 75, 2);
+        assertEquals(50, downscaler.getOutputWidth());
+        assertEquals(36, downscaler.getOutputHeight());
+
+        downscaler.downscale(ByteBuffer.wrap(new byte[101 * 75 * 3 / 2]), 101, 75, 4);
+        assertEquals(24, downscaler.getOutputWidth());
+        assertEquals(18, downscaler.getOutputHeight());
+    }
+
+    @Test
+    public void outputPixelsAverageTheirBlock() {
+        int width = 9;
+        int height = 5;
+        byte[] frame = new byte[width * height * 3 / 2];
+        // Top left 2 x 2 block: 10, 20, 30, 40; the next block is all 255.
+        frame[0] = 10;
+        frame[1] = 20;
+        frame[width] = 30;
+        frame[width + 1] = 40;
+        for (int y = 0; y < 2; y++) {
+            for (int x = 2; x < 4; x++) {
+                frame[y * width + x] = (byte) 255;
+            }
+        }
+
+        FrameDownscaler downscaler = new FrameDownscaler();
+        byte[] out = downscaler.downscale(ByteBuffer.wrap(frame), width, height, 2);
+
+        assertEquals(4, downscaler.getOutputWidth());
+        assertEquals(2, downscaler.getOutputHeight());
+        assertEquals(25, out[0] & 0xff);
+        assertEquals(255, out[1] & 0xff);
+        // The chroma plane is neutral grey.
+        for (int i = 8; i < 8 + 4; i++) {
+            assertEquals(128, out[i] & 0xff);
+        }
+    }
+
+    @Test
+    public void directBuffersMatchHeapBuffers() {
+        int width = 103;
+        int height = 61;
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i * 17);
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+        direct.put(frame);
+        direct.position(0);
+
+        FrameDownscaler downscaler = new FrameDownscaler();
+        int size = 24 * 14 * 3 / 2;
+        byte[] heap =
+                Arrays.copyOf(downscaler.downscale(ByteBuffer.wrap(frame), width, height, 4), size);
+        byte[] fromDirect = Arrays.copyOf(downscaler.downscale(direct, width, height, 4), size);
+
+        assertEquals(24, downscaler.getOutputWidth());
+        assertEquals(14, downscaler.getOutputHeight());
+        assertArrayEquals(heap, fromDirect);
+        assertEquals(0, direct.position());
+    }
+}
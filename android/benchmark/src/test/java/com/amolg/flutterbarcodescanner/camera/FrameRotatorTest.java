@@ -0,0 +1,48 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class FrameRotatorTest {
+    // 3 x 2 luma plane:
+    //   1 2 3
+    //   4 5 6
+    private static final byte[] SOURCE = {1, 2, 3, 4, 5, 6};
+
+    @Test
+    public void rotation0CopiesThePlane() {
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, rotate(0));
+    }
+
+    @Test
+    public void rotation90TurnsClockwise() {
+        // 2 x 3 output.
+        assertArrayEquals(new byte[]{4, 1, 5, 2, 6, 3}, rotate(1));
+    }
+
+    @Test
+    public void rotation180ReversesThePlane() {
+        assertArrayEquals(new byte[]{6, 5, 4, 3, 2, 1}, rotate(2));
+    }
+
+    @Test
+    public void rotation270TurnsCounterClockwise() {
+        // 2 x 3 output.
+        assertArrayEquals(new byte[]{3, 6, 2, 5, 1, 4}, rotate(3));
+    }
+
+    @Test
+    public void chromaAfterTheLumaPlaneIsIgnored() {
+        byte[] nv21 = {1, 2, 3, 4, 5, 6, 9, 9, 9};
+        byte[] dst = new byte[6];
+        FrameRotator.rotateLuma(nv21, 3, 2, 2, dst);
+        assertArrayEquals(new byte[]{6, 5, 4, 3, 2, 1}, dst);
+    }
+
+    private static byte[] rotate(int rotation) {
+        byte[] dst = new byte[SOURCE.length];
+        FrameRotator.rotateLuma(SOURCE, 3, 2, rotation, dst);
+        return dst;
+    }
+}
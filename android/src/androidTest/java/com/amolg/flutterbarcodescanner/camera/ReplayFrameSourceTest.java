@@ -0,0 +1,120 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays NV21 frames through the camera source pipeline, with a detector that finds a marker
+ * written into the frames, and checks the report against the frames that were fed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplayFrameSourceTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    // Slow enough that every frame is processed before the next one arrives
+    private static final float FPS = 10.0f;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private Context context;
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // Two of the three frames hold a marker
+        files.add(writeFrame("marked0.nv21", true));
+        files.add(writeFrame("blank.nv21", false));
+        files.add(writeFrame("marked1.nv21", true));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("MissingPermission")
+    public void reportsEveryReplayedFrame() throws Exception {
+        ReplayFrameSource replay =
+                new ReplayFrameSource(files, WIDTH, HEIGHT, Frame.ROTATION_0, FPS, 2);
+        MarkerDetector detector = new MarkerDetector();
+        detector.setProcessor(replay.instrument(new IgnoringProcessor()));
+        CameraSource source =
+                new CameraSource.Builder(context, detector).setFrameSource(replay).build();
+
+        source.start();
+        try {
+            assertTrue(replay.awaitCompletion(TIMEOUT_MILLIS));
+        } finally {
+            source.release();
+        }
+
+        ReplayFrameSource.Report report = replay.getReport();
+        assertEquals(6, report.getFramesEmitted());
+        assertEquals(0, report.getFramesDropped());
+        assertEquals(6, report.getFramesProcessed());
+        assertEquals(4, report.getDetections());
+        assertTrue(report.getElapsedMillis() > 0);
+        assertTrue(report.getDetectionsPerSecond() > 0);
+        assertTrue(report.getLatencyPercentileMillis(0.5f)
+                <= report.getLatencyPercentileMillis(0.95f));
+    }
+
+    private File writeFrame(String name, boolean marked) throws IOException {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        if (marked) {
+            nv21[0] = 1;
+        }
+        File file = new File(context.getCacheDir(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(nv21);
+        }
+        return file;
+    }
+
+    /**
+     * Detects one item in frames whose first luma byte is set.
+     */
+    private static final class MarkerDetector extends Detector<Integer> {
+        @Override
+        public SparseArray<Integer> detect(Frame frame) {
+            SparseArray<Integer> items = new SparseArray<>();
+            if (frame.getGrayscaleImageData().get(0) != 0) {
+                items.append(0, 0);
+            }
+            return items;
+        }
+    }
+
+    private static final class IgnoringProcessor implements Detector.Processor<Integer> {
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Integer> detections) {
+        }
+    }
+}
@@ -18,10 +18,12 @@ package com.amolg.flutterbarcodescanner;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -34,24 +36,44 @@ import androidx.core.app.ActivityCompat;
 import com.amolg.flutterbarcodescanner.camera.CameraSource;
 import com.amolg.flutterbarcodescanner.camera.CameraSourcePreview;
 import com.amolg.flutterbarcodescanner.camera.GraphicOverlay;
+import com.amolg.flutterbarcodescanner.camera.ScanMetrics;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.barcode.Barcode;
-import com.google.android.gms.vision.barcode.BarcodeDetector;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 public class BarcodeCaptureActivity extends AppCompatActivity implements BarcodeGraphicTracker.BarcodeUpdateListener {
     private static final int RC_HANDLE_GMS = 9001;
     private static final int RC_HANDLE_CAMERA_PERM = 2;
+    private static final int DUPLICATE_CACHE_SIZE = 256;
 
     public static final String SCAN_RESULT = "SCAN_RESULT";
+    public static final String SCAN_RESULT_DETAILS = "SCAN_RESULT_DETAILS";
+    public static final String DETAILED_RESULT = "DETAILED_RESULT";
+    public static final String SCAN_RESULT_LIST = "SCAN_RESULT_LIST";
+    public static final String SCAN_ERROR = "SCAN_ERROR";
+    public static final String MULTI_CAPTURE = "MULTI_CAPTURE";
+    public static final String MULTI_CAPTURE_WINDOW_MILLIS = "MULTI_CAPTURE_WINDOW_MILLIS";
     public static final String SCAN_MODE = "SCAN_MODE";
     public static final String LINE_COLOR = "LINE_COLOR";
     public static final String CANCEL_BUTTON_TEXT = "CANCEL_BUTTON_TEXT";
     public static final String SHOW_FLASH_ICON = "SHOW_FLASH_ICON";
+    public static final String AUTO_TORCH = "AUTO_TORCH";
+    public static final String AUTO_ZOOM = "AUTO_ZOOM";
     public static final String CONTINUOUS_SCAN = "CONTINUOUS_SCAN";
+    public static final String SCAN_WINDOW = "SCAN_WINDOW";
+    public static final String BARCODE_FORMATS = "BARCODE_FORMATS";
+    public static final String USE_CAMERA2 = "USE_CAMERA2";
+    public static final String DETECTION_WORKERS = "DETECTION_WORKERS";
+    public static final String DECODER_ENGINE = "DECODER_ENGINE";
+    public static final String DUPLICATE_TTL_MILLIS = "DUPLICATE_TTL_MILLIS";
+    public static final String KEEP_CAMERA_ALIVE_MILLIS = "KEEP_CAMERA_ALIVE_MILLIS";
     public static final int REQUEST_CODE = 1001;
 
     private CameraSource mCameraSource;
@@ -59,7 +81,22 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
     private GraphicOverlay<BarcodeGraphic> mGraphicOverlay;
     private ImageView imgViewBarcodeCaptureUseFlash;
     private boolean isContinuousScan = false;
+    private boolean isDetailedResult = false;
+    private boolean isMultiCapture = false;
+    private long multiCaptureWindowMillis = 0;
     private boolean isShowFlashIcon = false;
+    private boolean isAutoTorch = false;
+    private boolean isAutoZoom = false;
+    private int barcodeFormats = Barcode.ALL_FORMATS;
+    private boolean useCamera2 = false;
+    private int detectionWorkers = 1;
+    private DecoderEngine decoderEngine = DecoderEngine.AUTO;
+    private BarcodeDeduplicator barcodeDeduplicator;
+    private PreparedScanner preparedScanner;
+    private long keepCameraAliveMillis = 0;
+    private boolean isCameraKeptAlive = false;
+    private boolean isActivityResumed = false;
+    private boolean isActivityDestroyed = false;
 
     @Override
     public void onCreate(Bundle icicle) {
@@ -74,9 +111,26 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
         Intent intent = getIntent();
         if (intent != null) {
             isShowFlashIcon = intent.getBooleanExtra(SHOW_FLASH_ICON, false);
+            isAutoTorch = intent.getBooleanExtra(AUTO_TORCH, false);
+            isAutoZoom = intent.getBooleanExtra(AUTO_ZOOM, false);
             isContinuousScan = intent.getBooleanExtra(CONTINUOUS_SCAN, false);
+            isDetailedResult = intent.getBooleanExtra(DETAILED_RESULT, false);
+            // A continuous scan already streams every code
+            isMultiCapture = !isContinuousScan && intent.getBooleanExtra(MULTI_CAPTURE, false);
+            multiCaptureWindowMillis = intent.getLongExtra(MULTI_CAPTURE_WINDOW_MILLIS, 0);
+            barcodeFormats = intent.getIntExtra(BARCODE_FORMATS, Barcode.ALL_FORMATS);
+            useCamera2 = intent.getBooleanExtra(USE_CAMERA2, false);
+            detectionWorkers = intent.getIntExtra(DETECTION_WORKERS, 1);
+            decoderEngine = DecoderEngine.fromName(intent.getStringExtra(DECODER_ENGINE));
+            keepCameraAliveMillis = intent.getLongExtra(KEEP_CAMERA_ALIVE_MILLIS, 0);
+            long duplicateTtlMillis = intent.getLongExtra(DUPLICATE_TTL_MILLIS, 0);
+            if (isContinuousScan && duplicateTtlMillis > 0) {
+                barcodeDeduplicator = new BarcodeDeduplicator(duplicateTtlMillis, DUPLICATE_CACHE_SIZE);
+            }
             String cancelButtonText = intent.getStringExtra(CANCEL_BUTTON_TEXT);
             String lineColor = intent.getStringExtra(LINE_COLOR);
+            String scanMode = intent.getStringExtra(SCAN_MODE);
+            float[] scanWindow = intent.getFloatArrayExtra(SCAN_WINDOW);
 
             if (cancelButtonText != null) {
                 txtViewCancel.setText(cancelButtonText);
@@ -84,12 +138,19 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
             if (lineColor != null) {
                 mGraphicOverlay.setLineColor(lineColor);
             }
+            mGraphicOverlay.setScanMode(scanMode);
+            if (scanWindow != null && scanWindow.length == 4) {
+                mGraphicOverlay.setFinderRegion(scanWindow[0], scanWindow[1], scanWindow[2], scanWindow[3]);
+            }
         }
 
         imgViewBarcodeCaptureUseFlash.setVisibility(isShowFlashIcon ? View.VISIBLE : View.GONE);
         imgViewBarcodeCaptureUseFlash.setOnClickListener(v -> {
             if (mCameraSource != null) {
-                if (mCameraSource.getFlashMode() != null && mCameraSource.getFlashMode().equals(CameraSource.FLASH_MODE_TORCH)) {
+                boolean torchOn = CameraSource.FLASH_MODE_TORCH.equals(mCameraSource.getFlashMode());
+                // The user takes over from auto torch
+                mCameraSource.setAutoTorch(null, null);
+                if (torchOn) {
                     mCameraSource.setFlashMode(CameraSource.FLASH_MODE_OFF);
                     imgViewBarcodeCaptureUseFlash.setBackgroundResource(R.drawable.ic_flash_off);
                 } else {
@@ -117,13 +178,36 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
         ActivityCompat.requestPermissions(this, permissions, RC_HANDLE_CAMERA_PERM);
     }
 
-    @SuppressLint("InlinedApi")
     private void createCameraSource() {
-        BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(this).build();
+        // Reuse the detector and camera set up by prepareScanner or by the previous scan.  A
+        // prepareScanner still opening the camera is waited for, so stay off the main thread.
+        final PreparedScanner.Config config = new PreparedScanner.Config(barcodeFormats, useCamera2, detectionWorkers, decoderEngine);
+        final Context context = getApplicationContext();
+        new Thread(() -> {
+            PreparedScanner scanner = PreparedScanner.acquire(context, config);
+            runOnUiThread(() -> onScannerAcquired(scanner));
+        }, "AcquireScanner").start();
+    }
+
+    @SuppressLint("InlinedApi")
+    private void onScannerAcquired(PreparedScanner scanner) {
+        if (isActivityDestroyed) {
+            // Cancelled while the scanner was acquired
+            scanner.getCameraSource().stop();
+            PreparedScanner.recycle(scanner, 0);
+            return;
+        }
+        preparedScanner = scanner;
         BarcodeTrackerFactory barcodeFactory = new BarcodeTrackerFactory(mGraphicOverlay, this);
-        barcodeDetector.setProcessor(new MultiProcessor.Builder<>(barcodeFactory).build());
+        Detector.Processor<Barcode> processor = new MultiProcessor.Builder<>(barcodeFactory).build();
+        if (isMultiCapture) {
+            // Trackers keep drawing the overlay; the collector returns the result
+            BarcodeCollector collector = new BarcodeCollector(multiCaptureWindowMillis, this::onBarcodesCollected);
+            processor = collector.instrument(processor, preparedScanner.getCameraSource());
+        }
+        preparedScanner.setProcessor(processor);
 
-        if (!barcodeDetector.isOperational()) {
+        if (!preparedScanner.isOperational()) {
             IntentFilter lowstorageFilter = new IntentFilter(Intent.ACTION_DEVICE_STORAGE_LOW);
             boolean hasLowStorage = registerReceiver(null, lowstorageFilter) != null;
             if (hasLowStorage) {
@@ -131,24 +215,35 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
             }
         }
 
-        CameraSource.Builder builder = new CameraSource.Builder(getApplicationContext(), barcodeDetector)
-                .setFacing(CameraSource.CAMERA_FACING_BACK)
-                .setRequestedPreviewSize(1600, 1024)
-                .setRequestedFps(15.0f);
-
-        mCameraSource = builder.build();
+        mCameraSource = preparedScanner.getCameraSource();
+        preparedScanner.setAutoZoom(isAutoZoom);
+        if (isAutoTorch) {
+            mCameraSource.setAutoTorch(PreparedScanner.createAutoTorch(), on ->
+                    imgViewBarcodeCaptureUseFlash.setBackgroundResource(on ? R.drawable.ic_flash_on : R.drawable.ic_flash_off));
+        }
+        if (isActivityResumed) {
+            startCameraSource();
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        startCameraSource();
+        isActivityResumed = true;
+        if (preparedScanner != null) {
+            startCameraSource();
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        if (mPreview != null) {
+        isActivityResumed = false;
+        if (isFinishing() && keepCameraAliveMillis > 0 && mCameraSource != null) {
+            // Leave the camera open for the next scan
+            mCameraSource.suspend();
+            isCameraKeptAlive = true;
+        } else if (mPreview != null) {
             mPreview.stop();
         }
     }
@@ -156,8 +251,14 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (mPreview != null) {
-            mPreview.release();
+        isActivityDestroyed = true;
+        if (mPreview != null && !isCameraKeptAlive) {
+            mPreview.stop();
+        }
+        if (preparedScanner != null) {
+            // Keep the detector, and the camera if asked to, for the next scan
+            PreparedScanner.recycle(preparedScanner, isCameraKeptAlive ? keepCameraAliveMillis : 0);
+            preparedScanner = null;
         }
     }
 
@@ -175,7 +276,8 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
     }
 
     private void startCameraSource() throws SecurityException {
-        int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(getApplicationContext());
+        int code = preparedScanner != null ? preparedScanner.getPlayServicesStatus()
+                : GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(getApplicationContext());
         if (code != ConnectionResult.SUCCESS) {
             GoogleApiAvailability.getInstance().getErrorDialog(this, code, RC_HANDLE_GMS).show();
         }
@@ -186,17 +288,56 @@ public class BarcodeCaptureActivity extends AppCompatActivity implements Barcode
             } catch (IOException e) {
                 mCameraSource.release();
                 mCameraSource = null;
+                preparedScanner = null;
+            } catch (RuntimeException e) {
+                // E.g. the camera is held by another client; nothing to scan with
+                mCameraSource.release();
+                mCameraSource = null;
+                preparedScanner = null;
+                Intent data = new Intent();
+                data.putExtra(SCAN_ERROR, String.valueOf(e.getMessage()));
+                setResult(Activity.RESULT_CANCELED, data);
+                finish();
             }
         }
     }
 
     @Override
-    public void onBarcodeDetected(Barcode barcode) {
+    public void onBarcodeDetected(Barcode barcode, Frame.Metadata frame) {
+        ScanMetrics.get().recordDetectionCallback();
+        if (isMultiCapture) {
+            // Returned together by onBarcodesCollected
+            return;
+        }
+        if (isContinuousScan) {
+            if (barcodeDeduplicator != null
+                    && !barcodeDeduplicator.isFirstSighting(barcode.format, barcode.rawValue, SystemClock.elapsedRealtime())) {
+                return;
+            }
+            // Keep the camera open and stream the result to Dart
+            FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(isDetailedResult
+                    ? BarcodeResult.toMap(barcode, frame, mCameraSource.getRegionOfInterestOffset())
+                    : barcode.rawValue);
+            return;
+        }
         Intent data = new Intent();
         data.putExtra(SCAN_RESULT, barcode.rawValue);
+        if (isDetailedResult) {
+            data.putExtra(SCAN_RESULT_DETAILS, BarcodeResult.toMap(barcode, frame, mCameraSource.getRegionOfInterestOffset()));
+        }
         setResult(Activity.RESULT_OK, data);
-        if (!isContinuousScan) {
-            finish();
+        ScanMetrics.get().markResultSet();
+        finish();
+    }
+
+    private void onBarcodesCollected(ArrayList<HashMap<String, Object>> results) {
+        Intent data = new Intent();
+        if (!results.isEmpty()) {
+            data.putExtra(SCAN_RESULT, (String) results.get(0).get("rawValue"));
         }
+        data.putExtra(SCAN_RESULT_LIST, results);
+        setResult(Activity.RESULT_OK, data);
+        ScanMetrics.get().markResultSet();
+        finish();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,103 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Collects every barcode detected in a short window, for scans that return all the codes on a
+ * label at once instead of the first one.
+ * <p/>
+ * The window starts with the first frame that holds a barcode.  Every barcode detected until it
+ * closes is kept once, as a {@link BarcodeResult} map, in the order it was first seen.  The
+ * window closes with the first frame that ends at least the window length later, so a window of
+ * 0 returns exactly the codes of the first frame with any.  The listener is called once.
+ * <p/>
+ * The codes come from {@link #instrument(Detector.Processor, CameraSource)}, see
+ * {@link com.amolg.flutterbarcodescanner.camera.ScanMetrics#instrument(Detector.Processor)}.
+ */
+final class BarcodeCollector {
+    interface Listener {
+        /**
+         * Called on the detector thread with the codes collected, in the order first seen.
+         */
+        void onCollected(ArrayList<HashMap<String, Object>> results);
+    }
+
+    private final long windowMillis;
+    private final Listener listener;
+
+    // This lock guards all of the member variables below.
+    private final Object lock = new Object();
+    // Keyed by format and raw value, so that a code seen in several frames is kept once.
+    private final LinkedHashMap<String, HashMap<String, Object>> results = new LinkedHashMap<>();
+    private long firstMillis = -1;
+    private boolean done;
+
+    /**
+     * @param windowMillis how long after the first detection codes are still collected
+     */
+    BarcodeCollector(long windowMillis, Listener listener) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.listener = listener;
+    }
+
+    /**
+     * Wraps the processor detections are delivered to.  Barcode positions are shifted by the
+     * region of interest of {@code cameraSource} into preview coordinates.
+     */
+    Detector.Processor<Barcode> instrument(final Detector.Processor<Barcode> delegate,
+                                           final CameraSource cameraSource) {
+        return new Detector.Processor<Barcode>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<Barcode> detections) {
+                delegate.receiveDetections(detections);
+                collect(detections, cameraSource);
+            }
+        };
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private void collect(Detector.Detections<Barcode> detections, CameraSource cameraSource) {
+        SparseArray<Barcode> items = detections.getDetectedItems();
+        long nowMillis = SystemClock.elapsedRealtime();
+        ArrayList<HashMap<String, Object>> collected;
+        synchronized (lock) {
+            if (done || (items.size() == 0 && firstMillis < 0)) {
+                return;
+            }
+            for (int i = 0; i < items.size(); ++i) {
+                Barcode barcode = items.valueAt(i);
+                String key = barcode.format + ":" + barcode.rawValue;
+                if (!results.containsKey(key)) {
+                    results.put(key, BarcodeResult.toMap(barcode, detections.getFrameMetadata(),
+                            cameraSource.getRegionOfInterestOffset()));
+                }
+            }
+            if (firstMillis < 0) {
+                firstMillis = nowMillis;
+            }
+            if (nowMillis - firstMillis < windowMillis) {
+                return;
+            }
+            done = true;
+            collected = new ArrayList<>(results.values());
+        }
+        listener.onCollected(collected);
+    }
+}
@@ -0,0 +1,44 @@
+package com.amolg.flutterbarcodescanner;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Suppresses repeated reads of the same barcode during continuous scanning.
+ * <p/>
+ * A code that leaves the view and comes back, or a detection that flickers, gets a new tracker id
+ * and would be reported again.  This cache remembers the codes reported within the last TTL,
+ * keyed by format and raw value, and only lets first sightings through.  It is a bounded LRU, so
+ * a long session with many distinct codes does not grow it without limit.
+ */
+final class BarcodeDeduplicator {
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Long> reported;
+
+    /**
+     * @param ttlMillis how long a reported code is suppressed
+     * @param capacity  how many distinct codes are remembered at most
+     */
+    BarcodeDeduplicator(long ttlMillis, final int capacity) {
+        this.ttlMillis = ttlMillis;
+        this.reported = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns whether the code should be reported, and remembers it if so.  Thread safe.
+     */
+    synchronized boolean isFirstSighting(int format, String rawValue, long nowMillis) {
+        String key = format + ":" + rawValue;
+        Long reportedAt = reported.get(key);
+        if (reportedAt != null && nowMillis - reportedAt < ttlMillis) {
+            return false;
+        }
+        reported.put(key, nowMillis);
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package com.amolg.flutterbarcodescanner;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.List;
+
+/**
+ * Maps the scan mode and format names sent over the method channel to the format mask the
+ * {@link com.google.android.gms.vision.barcode.BarcodeDetector} is built with.  Restricting the
+ * mask means the detector does not search each frame for symbologies the caller never asked for.
+ */
+final class BarcodeFormats {
+    static final int ONE_D_FORMATS = Barcode.CODE_128 | Barcode.CODE_39 | Barcode.CODE_93
+            | Barcode.CODABAR | Barcode.EAN_13 | Barcode.EAN_8 | Barcode.ITF
+            | Barcode.UPC_A | Barcode.UPC_E;
+
+    private BarcodeFormats() {
+    }
+
+    /**
+     * Returns the format mask for a scan mode ("QR", "BARCODE" or "DEFAULT").
+     */
+    static int forScanMode(String scanMode) {
+        if ("QR".equalsIgnoreCase(scanMode)) {
+            return Barcode.QR_CODE;
+        } else if ("BARCODE".equalsIgnoreCase(scanMode)) {
+            return ONE_D_FORMATS;
+        }
+        return Barcode.ALL_FORMATS;
+    }
+
+    /**
+     * Returns the format mask for a list of format names such as "EAN_13" or "CODE_128", or
+     * {@link Barcode#ALL_FORMATS} if the list is empty.
+     *
+     * @throws IllegalArgumentException if a name is not a known format
+     */
+    static int fromNames(List<String> names) {
+        int formats = 0;
+        for (String name : names) {
+            formats |= fromName(name);
+        }
+        return formats == 0 ? Barcode.ALL_FORMATS : formats;
+    }
+
+    /**
+     * Returns the name of a single format, as used by {@link #fromNames(List)}, or null if the
+     * format is not one Dart knows.
+     */
+    static String toName(int format) {
+        switch (format) {
+            case Barcode.CODE_128:
+                return "CODE_128";
+            case Barcode.CODE_39:
+                return "CODE_39";
+            case Barcode.CODE_93:
+                return "CODE_93";
+            case Barcode.CODABAR:
+                return "CODABAR";
+            case Barcode.DATA_MATRIX:
+                return "DATA_MATRIX";
+            case Barcode.EAN_13:
+                return "EAN_13";
+            case Barcode.EAN_8:
+                return "EAN_8";
+            case Barcode.ITF:
+                return "ITF";
+            case Barcode.QR_CODE:
+                return "QR_CODE";
+            case Barcode.UPC_A:
+                return "UPC_A";
+            case Barcode.UPC_E:
+                return "UPC_E";
+            case Barcode.PDF417:
+                return "PDF417";
+            case Barcode.AZTEC:
+                return "AZTEC";
+            default:
+                return null;
+        }
+    }
+
+    private static int fromName(String name) {
+        switch (name) {
+            case "CODE_128":
+                return Barcode.CODE_128;
+            case "CODE_39":
+                return Barcode.CODE_39;
+            case "CODE_93":
+                return Barcode.CODE_93;
+            case "CODABAR":
+                return Barcode.CODABAR;
+            case "DATA_MATRIX":
+                return Barcode.DATA_MATRIX;
+            case "EAN_13":
+                return Barcode.EAN_13;
+            case "EAN_8":
+                return Barcode.EAN_8;
+            case "ITF":
+                return Barcode.ITF;
+            case "QR_CODE":
+                return Barcode.QR_CODE;
+            case "UPC_A":
+                return Barcode.UPC_A;
+            case "UPC_E":
+                return Barcode.UPC_E;
+            case "PDF417":
+                return Barcode.PDF417;
+            case "AZTEC":
+                return Barcode.AZTEC;
+            default:
+                throw new IllegalArgumentException("Unknown barcode format: " + name);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.amolg.flutterbarcodescanner;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Point;
 import android.graphics.RectF;
 import com.amolg.flutterbarcodescanner.camera.GraphicOverlay;
 import com.google.android.gms.vision.barcode.Barcode;
@@ -13,6 +14,9 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
     private final Paint mTextPaint;
     private volatile Barcode mBarcode;
 
+    // Reused by draw(), which runs on the main thread only.
+    private final RectF mRect = new RectF();
+
     BarcodeGraphic(GraphicOverlay overlay) {
         super(overlay);
 
@@ -40,8 +44,7 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
 
     void updateItem(Barcode barcode) {
         mBarcode = barcode;
-        // Corrected: call postInvalidate on the overlay
-        getOverlay().postInvalidate();
+        getOverlay().requestRedraw();
     }
 
     @Override
@@ -51,8 +54,16 @@ public class BarcodeGraphic extends GraphicOverlay.Graphic {
             return;
         }
 
-        RectF rect = new RectF(barcode.getBoundingBox());
-        // Corrected: call coordinate translation on the overlay
+        // Bounds from the corner points, as getBoundingBox() allocates a new Rect on every call
+        RectF rect = mRect;
+        Point[] corners = barcode.cornerPoints;
+        if (corners == null || corners.length == 0) {
+            return;
+        }
+        rect.set(corners[0].x, corners[0].y, corners[0].x, corners[0].y);
+        for (int i = 1; i < corners.length; ++i) {
+            rect.union(corners[i].x, corners[i].y);
+        }
         rect.left = getOverlay().translateX(rect.left);
         rect.top = getOverlay().translateY(rect.top);
         rect.right = getOverlay().translateX(rect.right);
@@ -2,6 +2,7 @@ package com.amolg.flutterbarcodescanner;
 
 import com.amolg.flutterbarcodescanner.camera.GraphicOverlay;
 import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
 
@@ -9,9 +10,13 @@ class BarcodeGraphicTracker extends Tracker<Barcode> {
     private final GraphicOverlay<BarcodeGraphic> mOverlay;
     private final BarcodeGraphic mGraphic;
     private final BarcodeUpdateListener mBarcodeUpdateListener;
+    private boolean mIsNew;
 
     public interface BarcodeUpdateListener {
-        void onBarcodeDetected(Barcode barcode);
+        /**
+         * @param frame metadata of the frame the barcode first appeared in
+         */
+        void onBarcodeDetected(Barcode barcode, Frame.Metadata frame);
     }
 
     BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> overlay, BarcodeGraphic graphic, BarcodeUpdateListener listener) {
@@ -23,13 +28,18 @@ class BarcodeGraphicTracker extends Tracker<Barcode> {
     @Override
     public void onNewItem(int id, Barcode item) {
         mGraphic.setId(id);
-        if (mBarcodeUpdateListener != null) {
-            mBarcodeUpdateListener.onBarcodeDetected(item);
-        }
+        // Reported from the first update, which carries the frame the item was found in
+        mIsNew = true;
     }
 
     @Override
     public void onUpdate(Detector.Detections<Barcode> detectionResults, Barcode item) {
+        if (mIsNew) {
+            mIsNew = false;
+            if (mBarcodeUpdateListener != null) {
+                mBarcodeUpdateListener.onBarcodeDetected(item, detectionResults.getFrameMetadata());
+            }
+        }
         mOverlay.add(mGraphic);
         mGraphic.updateItem(item);
     }
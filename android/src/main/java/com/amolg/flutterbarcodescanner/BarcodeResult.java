@@ -0,0 +1,70 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.graphics.Point;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.HashMap;
+
+/**
+ * Packs a detected barcode and the frame it was found in into a map of standard message codec
+ * types, for scans that ask for detailed results instead of the raw value alone.
+ * <p/>
+ * The raw bytes are sent as a {@code byte[]} and the geometry as {@code int[]}, which the codec
+ * writes as binary typed data and Dart reads as {@code Uint8List} and {@code Int32List}, so
+ * binary payloads such as PDF417 driver licences arrive without a text round trip.  Geometry is
+ * in pixels of the upright preview: detections made on a cropped region of interest are shifted
+ * back by the region's offset.
+ */
+final class BarcodeResult {
+    private BarcodeResult() {
+    }
+
+    /**
+     * @param frame  metadata of the frame the barcode was detected in, or null if unknown
+     * @param offset position of the detected region inside the upright preview, or null for the
+     *               whole preview
+     * @return a {@link HashMap}, so that it can also travel as a serializable Intent extra
+     */
+    static HashMap<String, Object> toMap(Barcode barcode, @Nullable Frame.Metadata frame, @Nullable Point offset) {
+        int dx = offset != null ? offset.x : 0;
+        int dy = offset != null ? offset.y : 0;
+
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("format", BarcodeFormats.toName(barcode.format));
+        map.put("valueFormat", barcode.valueFormat);
+        map.put("rawValue", barcode.rawValue);
+        map.put("rawBytes", barcode.rawBytes);
+
+        Point[] corners = barcode.cornerPoints;
+        if (corners != null && corners.length > 0) {
+            // Corners as x0, y0, x1, y1, ... and the box around them as left, top, right, bottom
+            int[] points = new int[corners.length * 2];
+            int left = Integer.MAX_VALUE;
+            int top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE;
+            int bottom = Integer.MIN_VALUE;
+            for (int i = 0; i < corners.length; ++i) {
+                int x = corners[i].x + dx;
+                int y = corners[i].y + dy;
+                points[2 * i] = x;
+                points[2 * i + 1] = y;
+                left = Math.min(left, x);
+                top = Math.min(top, y);
+                right = Math.max(right, x);
+                bottom = Math.max(bottom, y);
+            }
+            map.put("cornerPoints", points);
+            map.put("boundingBox", new int[]{left, top, right, bottom});
+        }
+
+        if (frame != null) {
+            map.put("frameId", frame.getId());
+            map.put("timestampMillis", frame.getTimestampMillis());
+        }
+        return map;
+    }
+}
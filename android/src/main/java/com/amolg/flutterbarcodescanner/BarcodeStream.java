@@ -0,0 +1,84 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Delivers continuous scan results to the {@code flutter_barcode_scanner_receiver} event channel.
+ * <p/>
+ * Results may be posted from any thread, either as raw value Strings or as {@link BarcodeResult}
+ * maps.  With a coalesce window of zero every result is sent as its own event.  With a positive
+ * window, all results posted within the window after the first one are sent together as a single
+ * List event, so bursts of detections cost one platform message instead of one each.
+ */
+class BarcodeStream implements EventChannel.StreamHandler {
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Object mLock = new Object();
+    private final Runnable mFlush = this::flush;
+
+    // Only touched on the main thread.
+    private EventChannel.EventSink mSink;
+
+    // Guarded by mLock.
+    private List<Object> mPending = new ArrayList<>();
+    private long mCoalesceWindowMillis;
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        mSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        mSink = null;
+    }
+
+    void setCoalesceWindow(long millis) {
+        synchronized (mLock) {
+            mCoalesceWindowMillis = Math.max(0, millis);
+        }
+    }
+
+    /**
+     * Queues a result for delivery.  May be called from the detector thread.
+     */
+    void post(Object value) {
+        synchronized (mLock) {
+            mPending.add(value);
+            if (mPending.size() > 1) {
+                // A flush is already scheduled for this window.
+                return;
+            }
+            if (mCoalesceWindowMillis == 0) {
+                mMainHandler.post(mFlush);
+            } else {
+                mMainHandler.postDelayed(mFlush, mCoalesceWindowMillis);
+            }
+        }
+    }
+
+    private void flush() {
+        List<Object> values;
+        boolean coalesce;
+        synchronized (mLock) {
+            values = mPending;
+            mPending = new ArrayList<>();
+            coalesce = mCoalesceWindowMillis > 0;
+        }
+        if (mSink == null || values.isEmpty()) {
+            return;
+        }
+        if (coalesce) {
+            mSink.success(values);
+        } else {
+            for (Object value : values) {
+                mSink.success(value);
+            }
+        }
+    }
+}
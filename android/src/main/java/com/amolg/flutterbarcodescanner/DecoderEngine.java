@@ -0,0 +1,37 @@
+package com.amolg.flutterbarcodescanner;
+
+/**
+ * The barcode decoder a scan runs on, selected per scan over the method channel.
+ */
+enum DecoderEngine {
+    /**
+     * Google Play Services Vision, falling back to {@link #ZXING} when it is not operational,
+     * e.g. on devices without Play Services or before its native library has been downloaded.
+     */
+    AUTO,
+    /**
+     * Google Play Services Vision only.
+     */
+    GMS,
+    /**
+     * The pure Java ZXing decoder bundled with the plugin, see {@link ZXingBarcodeDetector}.
+     */
+    ZXING;
+
+    /**
+     * Returns the engine for a name sent by Dart ("AUTO", "GMS" or "ZXING"), or {@link #AUTO} if
+     * none was sent.
+     *
+     * @throws IllegalArgumentException if the name is not a known engine
+     */
+    static DecoderEngine fromName(String name) {
+        if (name == null) {
+            return AUTO;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown decoder engine: " + name);
+        }
+    }
+}
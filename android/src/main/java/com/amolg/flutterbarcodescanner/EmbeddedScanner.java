@@ -0,0 +1,223 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.Manifest;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.RequiresPermission;
+
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.camera.ScanMetrics;
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.Tracker;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import io.flutter.view.TextureRegistry;
+
+/**
+ * A continuous scan shown inside the Flutter UI instead of in {@link BarcodeCaptureActivity}.
+ * <p/>
+ * The camera preview is rendered into a texture registered with Flutter's texture registry,
+ * which Dart displays with a {@code Texture} widget.  Results are streamed to the event channel
+ * the same way a continuous scan in the activity streams them.  The detector and camera come
+ * from {@link PreparedScanner}, so a scanner prepared ahead of time is used here as well.
+ */
+final class EmbeddedScanner {
+    private static final int DUPLICATE_CACHE_SIZE = 256;
+
+    private final TextureRegistry.SurfaceTextureEntry textureEntry;
+    private final Context context;
+    private final PreparedScanner.Config config;
+    private final BarcodeDeduplicator barcodeDeduplicator;
+    private final boolean autoTorch;
+    private final boolean autoZoom;
+    private final boolean detailedResults;
+
+    // This lock guards all of the member variables below.
+    private final Object lock = new Object();
+    private boolean starting;
+    private boolean stopped;
+    private long stopKeepAliveMillis;
+    // Set by start() once the scanner has been acquired.
+    private PreparedScanner preparedScanner;
+
+    /**
+     * @param duplicateTtlMillis how long the same code is not streamed again; 0 streams every
+     *                           new sighting
+     * @param autoTorch          whether the torch is switched on and off with the brightness of
+     *                           the scan window
+     * @param autoZoom           whether the camera zooms in on codes too small to decode well
+     * @param detailedResults    whether results are streamed as {@link BarcodeResult} maps
+     *                           instead of raw values
+     */
+    EmbeddedScanner(TextureRegistry textureRegistry, Context context, PreparedScanner.Config config,
+                    long duplicateTtlMillis, boolean autoTorch, boolean autoZoom, boolean detailedResults) {
+        this.context = context.getApplicationContext();
+        this.config = config;
+        barcodeDeduplicator = duplicateTtlMillis > 0
+                ? new BarcodeDeduplicator(duplicateTtlMillis, DUPLICATE_CACHE_SIZE) : null;
+        this.autoTorch = autoTorch;
+        this.autoZoom = autoZoom;
+        this.detailedResults = detailedResults;
+        textureEntry = textureRegistry.createSurfaceTexture();
+    }
+
+    /**
+     * Acquires the scanner, starts the camera and returns the texture id and the upright preview
+     * size, as a map of standard message codec types.  Blocks while a scanner prepared ahead is
+     * still being set up and while the camera opens; call it off the main thread.
+     *
+     * @param scanWindow the region to detect in as [left, top, right, bottom] fractions of the
+     *                   upright preview, or null for the whole preview
+     * @throws IOException           if the camera could not be started
+     * @throws CancellationException if the scan was stopped before the camera had started
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    Map<String, Object> start(float[] scanWindow) throws IOException {
+        synchronized (lock) {
+            if (stopped) {
+                throw new CancellationException("The scan was stopped before it started.");
+            }
+            starting = true;
+        }
+        Map<String, Object> started;
+        boolean cancelled;
+        try {
+            PreparedScanner scanner = PreparedScanner.acquire(context, config);
+            scanner.setProcessor(new MultiProcessor.Builder<Barcode>(barcode -> new BarcodeTracker()).build());
+            synchronized (lock) {
+                preparedScanner = scanner;
+            }
+            started = startCamera(scanner, scanWindow);
+        } finally {
+            synchronized (lock) {
+                starting = false;
+                cancelled = stopped;
+            }
+            if (cancelled) {
+                // stop() left the teardown to us, as the camera was still starting.  The texture
+                // belongs to the main thread.
+                final long keepAliveMillis = stopKeepAliveMillis;
+                new Handler(Looper.getMainLooper()).post(() -> release(keepAliveMillis));
+            }
+        }
+        if (cancelled) {
+            throw new CancellationException("The scan was stopped while the camera started.");
+        }
+        return started;
+    }
+
+    /**
+     * Stops the scan and releases the texture.  If the camera is still starting, it is stopped
+     * once it has started, and {@link #start(float[])} fails.
+     *
+     * @param keepAliveMillis how long the camera is kept open for the next scan; 0 closes it
+     */
+    void stop(long keepAliveMillis) {
+        synchronized (lock) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (starting) {
+                stopKeepAliveMillis = keepAliveMillis;
+                return;
+            }
+        }
+        release(keepAliveMillis);
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private Map<String, Object> startCamera(PreparedScanner scanner, float[] scanWindow) throws IOException {
+        CameraSource cameraSource = scanner.getCameraSource();
+        if (scanWindow != null) {
+            cameraSource.setRegionOfInterest(scanWindow[0], scanWindow[1], scanWindow[2], scanWindow[3]);
+        } else {
+            cameraSource.clearRegionOfInterest();
+        }
+        if (autoTorch) {
+            cameraSource.setAutoTorch(PreparedScanner.createAutoTorch(), null);
+        }
+        scanner.setAutoZoom(autoZoom);
+        cameraSource.start(textureEntry.surfaceTexture());
+
+        Size size = cameraSource.getPreviewSize();
+        boolean rotated = cameraSource.getRotation() % 2 != 0;
+        Map<String, Object> map = new HashMap<>();
+        map.put("textureId", textureEntry.id());
+        map.put("previewWidth", rotated ? size.getHeight() : size.getWidth());
+        map.put("previewHeight", rotated ? size.getWidth() : size.getHeight());
+        return map;
+    }
+
+    private void release(long keepAliveMillis) {
+        PreparedScanner scanner;
+        synchronized (lock) {
+            scanner = preparedScanner;
+        }
+        if (scanner != null) {
+            CameraSource cameraSource = scanner.getCameraSource();
+            if (keepAliveMillis > 0) {
+                cameraSource.suspend();
+            } else {
+                cameraSource.stop();
+            }
+            cameraSource.clearRegionOfInterest();
+            PreparedScanner.recycle(scanner, keepAliveMillis);
+        }
+        textureEntry.release();
+    }
+
+    private void onBarcodeDetected(Barcode barcode, Frame.Metadata frame) {
+        ScanMetrics.get().recordDetectionCallback();
+        if (barcodeDeduplicator != null
+                && !barcodeDeduplicator.isFirstSighting(barcode.format, barcode.rawValue, SystemClock.elapsedRealtime())) {
+            return;
+        }
+        if (detailedResults) {
+            CameraSource cameraSource;
+            synchronized (lock) {
+                cameraSource = preparedScanner.getCameraSource();
+            }
+            FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(
+                    BarcodeResult.toMap(barcode, frame, cameraSource.getRegionOfInterestOffset()));
+        } else {
+            FlutterBarcodeScannerPlugin.onBarcodeScanReceiver(barcode.rawValue);
+        }
+    }
+
+    /**
+     * Streams each barcode once when it comes into view; there is no overlay to update.  The
+     * barcode is reported from its first update, which carries the frame it was found in.
+     */
+    private final class BarcodeTracker extends Tracker<Barcode> {
+        private boolean mIsNew;
+
+        @Override
+        public void onNewItem(int id, Barcode item) {
+            mIsNew = true;
+        }
+
+        @Override
+        public void onUpdate(Detector.Detections<Barcode> detections, Barcode item) {
+            if (mIsNew) {
+                mIsNew = false;
+                onBarcodeDetected(item, detections.getFrameMetadata());
+            }
+        }
+    }
+}
@@ -1,28 +1,77 @@
 package com.amolg.flutterbarcodescanner;
 
+import android.Manifest;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
+import androidx.core.app.ActivityCompat;
+
+import com.amolg.flutterbarcodescanner.camera.ScanMetrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry.ActivityResultListener;
+import io.flutter.view.TextureRegistry;
 
 public class FlutterBarcodeScannerPlugin implements FlutterPlugin, ActivityAware, MethodCallHandler, ActivityResultListener {
     private static final String CHANNEL = "flutter_barcode_scanner";
+    private static final String EVENT_CHANNEL = "flutter_barcode_scanner_receiver";
+    private static final String IMAGE_EVENT_CHANNEL = "flutter_barcode_scanner_images";
+    private static BarcodeStream barcodeStream;
+    private Context applicationContext;
     private Activity activity;
     private Result pendingResult;
+    private boolean pendingDetailedResult;
+    private boolean pendingMultiCapture;
     private MethodChannel channel;
+    private EventChannel eventChannel;
+    private EventChannel imageEventChannel;
+    private ImageScanStream imageScanStream;
+    private TextureRegistry textureRegistry;
+    private EmbeddedScanner embeddedScanner;
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
+        applicationContext = binding.getApplicationContext();
+        textureRegistry = binding.getTextureRegistry();
         channel = new MethodChannel(binding.getBinaryMessenger(), CHANNEL);
         channel.setMethodCallHandler(this);
+
+        barcodeStream = new BarcodeStream();
+        eventChannel = new EventChannel(binding.getBinaryMessenger(), EVENT_CHANNEL);
+        eventChannel.setStreamHandler(barcodeStream);
+
+        imageScanStream = new ImageScanStream();
+        imageEventChannel = new EventChannel(binding.getBinaryMessenger(), IMAGE_EVENT_CHANNEL);
+        imageEventChannel.setStreamHandler(imageScanStream);
+    }
+
+    /**
+     * Sends a result of a continuous scan to the event channel.  Called by
+     * {@link BarcodeCaptureActivity} while the camera stays open.
+     *
+     * @param barcode the raw value, or a {@link BarcodeResult} map for detailed results
+     */
+    static void onBarcodeScanReceiver(Object barcode) {
+        BarcodeStream stream = barcodeStream;
+        if (stream != null) {
+            stream.post(barcode);
+        }
     }
 
     @Override
@@ -39,40 +88,269 @@ public class FlutterBarcodeScannerPlugin implements FlutterPlugin, ActivityAware
 
             Intent intent = new Intent(activity, BarcodeCaptureActivity.class);
 
-            // --- THE DEFINITIVE FIX IS HERE ---
-            // Get the integer index (0 for QR, 1 for Barcode)
-            int scanModeInt = call.argument("scanMode");
-            String scanMode;
+            String scanMode = toScanModeName(call.argument("scanMode"));
+            int barcodeFormats;
+            try {
+                barcodeFormats = resolveBarcodeFormats(scanMode, call.argument("formats"));
+            } catch (IllegalArgumentException e) {
+                pendingResult = null;
+                result.error("INVALID_FORMAT", e.getMessage(), null);
+                return;
+            }
 
-            // Convert the integer to the String the activity expects
-            if (scanModeInt == 0) {
-                scanMode = "QR";
-            } else {
-                scanMode = "BARCODE";
+            DecoderEngine decoderEngine;
+            try {
+                decoderEngine = DecoderEngine.fromName(call.argument("decoderEngine"));
+            } catch (IllegalArgumentException e) {
+                pendingResult = null;
+                result.error("INVALID_ENGINE", e.getMessage(), null);
+                return;
             }
-            // --- END OF FIX ---
 
             intent.putExtra(BarcodeCaptureActivity.SCAN_MODE, scanMode);
+            intent.putExtra(BarcodeCaptureActivity.BARCODE_FORMATS, barcodeFormats);
+            intent.putExtra(BarcodeCaptureActivity.DECODER_ENGINE, decoderEngine.name());
+
+            Boolean useCamera2 = call.argument("useCamera2");
+            intent.putExtra(BarcodeCaptureActivity.USE_CAMERA2, useCamera2 != null && useCamera2);
+            Number detectionWorkers = call.argument("detectionWorkers");
+            intent.putExtra(BarcodeCaptureActivity.DETECTION_WORKERS, detectionWorkers != null ? detectionWorkers.intValue() : 1);
+            Number keepCameraAliveMillis = call.argument("keepCameraAliveMillis");
+            intent.putExtra(BarcodeCaptureActivity.KEEP_CAMERA_ALIVE_MILLIS, keepCameraAliveMillis != null ? keepCameraAliveMillis.longValue() : 0L);
             intent.putExtra(BarcodeCaptureActivity.LINE_COLOR, (String) call.argument("lineColor"));
             intent.putExtra(BarcodeCaptureActivity.CANCEL_BUTTON_TEXT, (String) call.argument("cancelButtonText"));
             intent.putExtra(BarcodeCaptureActivity.SHOW_FLASH_ICON, (Boolean) call.argument("isShowFlashIcon"));
-            intent.putExtra(BarcodeCaptureActivity.CONTINUOUS_SCAN, false);
+            Boolean autoTorch = call.argument("autoTorch");
+            intent.putExtra(BarcodeCaptureActivity.AUTO_TORCH, autoTorch != null && autoTorch);
+            Boolean autoZoom = call.argument("autoZoom");
+            intent.putExtra(BarcodeCaptureActivity.AUTO_ZOOM, autoZoom != null && autoZoom);
+            Boolean isContinuousScan = call.argument("isContinuousScan");
+            intent.putExtra(BarcodeCaptureActivity.CONTINUOUS_SCAN, isContinuousScan != null && isContinuousScan);
+            Boolean detailedResult = call.argument("detailedResult");
+            pendingDetailedResult = detailedResult != null && detailedResult;
+            intent.putExtra(BarcodeCaptureActivity.DETAILED_RESULT, pendingDetailedResult);
+            // Every code found within this window of the first is returned as one list
+            Number multiCaptureWindowMillis = call.argument("multiCaptureWindowMillis");
+            pendingMultiCapture = multiCaptureWindowMillis != null;
+            intent.putExtra(BarcodeCaptureActivity.MULTI_CAPTURE, pendingMultiCapture);
+            intent.putExtra(BarcodeCaptureActivity.MULTI_CAPTURE_WINDOW_MILLIS,
+                    multiCaptureWindowMillis != null ? multiCaptureWindowMillis.longValue() : 0L);
+
+            // Continuous results detected within this window are sent as one event
+            Number coalesceWindowMillis = call.argument("coalesceWindowMillis");
+            barcodeStream.setCoalesceWindow(coalesceWindowMillis != null ? coalesceWindowMillis.longValue() : 0);
+
+            // The same code is only streamed once within this window
+            Number duplicateTtlMillis = call.argument("duplicateTtlMillis");
+            intent.putExtra(BarcodeCaptureActivity.DUPLICATE_TTL_MILLIS, duplicateTtlMillis != null ? duplicateTtlMillis.longValue() : 0L);
+
+            // Optional scan window as [left, top, right, bottom] fractions of the preview
+            float[] scanWindow = toScanWindow(call.argument("scanWindow"));
+            if (scanWindow != null) {
+                intent.putExtra(BarcodeCaptureActivity.SCAN_WINDOW, scanWindow);
+            }
 
             activity.startActivityForResult(intent, BarcodeCaptureActivity.REQUEST_CODE);
+        } else if (call.method.equals("prepareScanner")) {
+            int barcodeFormats;
+            try {
+                barcodeFormats = resolveBarcodeFormats(toScanModeName(call.argument("scanMode")), call.argument("formats"));
+            } catch (IllegalArgumentException e) {
+                result.error("INVALID_FORMAT", e.getMessage(), null);
+                return;
+            }
+            final PreparedScanner.Config config;
+            try {
+                config = toScannerConfig(call, barcodeFormats);
+            } catch (IllegalArgumentException e) {
+                result.error("INVALID_ENGINE", e.getMessage(), null);
+                return;
+            }
+
+            // Building the detector and opening the camera take a while, so stay off the main
+            // thread
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            new Thread(() -> {
+                PreparedScanner.prepare(applicationContext, config);
+                mainHandler.post(() -> result.success(null));
+            }, "PrepareScanner").start();
+        } else if (call.method.equals("startEmbeddedScan")) {
+            startEmbeddedScan(call, result);
+        } else if (call.method.equals("stopEmbeddedScan")) {
+            if (embeddedScanner != null) {
+                Number keepCameraAliveMillis = call.argument("keepCameraAliveMillis");
+                embeddedScanner.stop(keepCameraAliveMillis != null ? keepCameraAliveMillis.longValue() : 0L);
+                embeddedScanner = null;
+            }
+            result.success(null);
+        } else if (call.method.equals("scanImages")) {
+            List<String> paths = call.argument("paths");
+            Number batchId = call.argument("batchId");
+            if (paths == null || batchId == null) {
+                result.error("INVALID_ARGUMENT", "scanImages needs paths and a batchId.", null);
+                return;
+            }
+            int barcodeFormats;
+            DecoderEngine decoderEngine;
+            try {
+                barcodeFormats = resolveBarcodeFormats(toScanModeName(call.argument("scanMode")), call.argument("formats"));
+                decoderEngine = DecoderEngine.fromName(call.argument("decoderEngine"));
+            } catch (IllegalArgumentException e) {
+                result.error("INVALID_ARGUMENT", e.getMessage(), null);
+                return;
+            }
+            Number maxImageSize = call.argument("maxImageSize");
+            ImageBatchScanner scanner = new ImageBatchScanner(applicationContext, barcodeFormats, decoderEngine,
+                    maxImageSize != null ? maxImageSize.intValue() : ImageBatchScanner.DEFAULT_MAX_IMAGE_SIZE,
+                    imageScanStream);
+            // Replies once every file's result has been sent to the event channel
+            scanner.scan(batchId.intValue(), paths, () -> result.success(null));
+        } else if (call.method.equals("getScanMetrics")) {
+            ScanMetrics metrics = ScanMetrics.get();
+            result.success(metrics.toMap());
+            Boolean reset = call.argument("reset");
+            if (reset != null && reset) {
+                metrics.reset();
+            }
         } else {
             result.notImplemented();
         }
     }
 
+    /**
+     * Starts a continuous scan whose preview is rendered into a Flutter texture.  Replies with the
+     * texture id and preview size once the camera runs; results go to the event channel.
+     */
+    @SuppressWarnings("MissingPermission")
+    private void startEmbeddedScan(MethodCall call, final Result result) {
+        if (embeddedScanner != null) {
+            result.error("ALREADY_ACTIVE", "An embedded scan is already running.", null);
+            return;
+        }
+        if (ActivityCompat.checkSelfPermission(applicationContext, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "The camera permission has not been granted.", null);
+            return;
+        }
+        int barcodeFormats;
+        try {
+            barcodeFormats = resolveBarcodeFormats(toScanModeName(call.argument("scanMode")), call.argument("formats"));
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_FORMAT", e.getMessage(), null);
+            return;
+        }
+        PreparedScanner.Config config;
+        try {
+            config = toScannerConfig(call, barcodeFormats);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ENGINE", e.getMessage(), null);
+            return;
+        }
+        Number duplicateTtlMillis = call.argument("duplicateTtlMillis");
+        Number coalesceWindowMillis = call.argument("coalesceWindowMillis");
+        barcodeStream.setCoalesceWindow(coalesceWindowMillis != null ? coalesceWindowMillis.longValue() : 0);
+        final float[] scanWindow = toScanWindow(call.argument("scanWindow"));
+        Boolean autoTorch = call.argument("autoTorch");
+        Boolean autoZoom = call.argument("autoZoom");
+        Boolean detailedResult = call.argument("detailedResult");
+
+        final EmbeddedScanner scanner = new EmbeddedScanner(textureRegistry, applicationContext, config,
+                duplicateTtlMillis != null ? duplicateTtlMillis.longValue() : 0L,
+                autoTorch != null && autoTorch, autoZoom != null && autoZoom,
+                detailedResult != null && detailedResult);
+        embeddedScanner = scanner;
+
+        // Opening the camera takes a while, so stay off the main thread
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        new Thread(() -> {
+            try {
+                Map<String, Object> started = scanner.start(scanWindow);
+                mainHandler.post(() -> result.success(started));
+            } catch (CancellationException e) {
+                // Stopped while starting; the scanner has already torn itself down
+                mainHandler.post(() -> result.error("CANCELLED", e.getMessage(), null));
+            } catch (IOException | RuntimeException e) {
+                mainHandler.post(() -> {
+                    if (embeddedScanner == scanner) {
+                        scanner.stop(0);
+                        embeddedScanner = null;
+                    }
+                    result.error("CAMERA_ERROR", e.getMessage(), null);
+                });
+            }
+        }, "StartEmbeddedScan").start();
+    }
+
+    /**
+     * Reads the camera API, worker count and decoder engine a scanner is built with.
+     *
+     * @throws IllegalArgumentException if the decoder engine is unknown
+     */
+    private static PreparedScanner.Config toScannerConfig(MethodCall call, int barcodeFormats) {
+        Boolean useCamera2 = call.argument("useCamera2");
+        Number detectionWorkers = call.argument("detectionWorkers");
+        return new PreparedScanner.Config(barcodeFormats, useCamera2 != null && useCamera2,
+                detectionWorkers != null ? detectionWorkers.intValue() : 1,
+                DecoderEngine.fromName(call.argument("decoderEngine")));
+    }
+
+    /**
+     * Converts a scan window sent by Dart as [left, top, right, bottom] to an array, or null if
+     * none was sent.
+     */
+    private static float[] toScanWindow(List<Double> scanWindow) {
+        if (scanWindow == null || scanWindow.size() != 4) {
+            return null;
+        }
+        float[] window = new float[4];
+        for (int i = 0; i < 4; i++) {
+            window[i] = scanWindow.get(i).floatValue();
+        }
+        return window;
+    }
+
+    /**
+     * Converts the scan mode index sent by Dart (0 for QR, 1 for Barcode) to the String the
+     * activity expects.
+     */
+    private static String toScanModeName(Integer scanModeIndex) {
+        if (scanModeIndex != null && scanModeIndex == 0) {
+            return "QR";
+        } else if (scanModeIndex != null && scanModeIndex == 1) {
+            return "BARCODE";
+        }
+        return "DEFAULT";
+    }
+
+    /**
+     * An explicit format list wins over the formats implied by the scan mode.
+     *
+     * @throws IllegalArgumentException if the list holds an unknown format
+     */
+    private static int resolveBarcodeFormats(String scanMode, List<String> formats) {
+        if (formats != null) {
+            return BarcodeFormats.fromNames(formats);
+        }
+        return BarcodeFormats.forScanMode(scanMode);
+    }
+
     @Override
     public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == BarcodeCaptureActivity.REQUEST_CODE) {
             if (pendingResult != null) {
                 if (resultCode == Activity.RESULT_OK && data != null) {
-                    String barcode = data.getStringExtra(BarcodeCaptureActivity.SCAN_RESULT);
-                    pendingResult.success(barcode);
+                    if (pendingMultiCapture) {
+                        pendingResult.success(data.getSerializableExtra(BarcodeCaptureActivity.SCAN_RESULT_LIST));
+                    } else if (pendingDetailedResult) {
+                        pendingResult.success(data.getSerializableExtra(BarcodeCaptureActivity.SCAN_RESULT_DETAILS));
+                    } else {
+                        pendingResult.success(data.getStringExtra(BarcodeCaptureActivity.SCAN_RESULT));
+                    }
+                    ScanMetrics.get().recordResultDelivered();
+                } else if (data != null && data.getStringExtra(BarcodeCaptureActivity.SCAN_ERROR) != null) {
+                    pendingResult.error("CAMERA_ERROR", data.getStringExtra(BarcodeCaptureActivity.SCAN_ERROR), null);
                 } else {
-                    pendingResult.success("-1");
+                    // Detailed and multi capture results report a cancelled scan as null
+                    pendingResult.success(pendingDetailedResult || pendingMultiCapture ? null : "-1");
                 }
                 pendingResult = null;
             }
@@ -91,6 +369,13 @@ public class FlutterBarcodeScannerPlugin implements FlutterPlugin, ActivityAware
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         channel.setMethodCallHandler(null);
+        eventChannel.setStreamHandler(null);
+        imageEventChannel.setStreamHandler(null);
+        if (embeddedScanner != null) {
+            embeddedScanner.stop(0);
+            embeddedScanner = null;
+        }
+        barcodeStream = null;
     }
 
     @Override
@@ -0,0 +1,221 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes the barcodes in a batch of image files, e.g. photos of delivery notes, on a bounded
+ * thread pool shared by all batches.
+ * <p/>
+ * Each file being decoded has a detector of its own, reused by the batch's later files.  Images
+ * are decoded subsampled by a power of two, so that neither side is larger than the maximum image
+ * size, and in RGB_565; a thread holds one image at a time, so memory stays bounded however large
+ * the photos or the batches are.  A file that fails in any way, even running out of memory, is
+ * reported with an error and does not hold up the rest of the batch.  The EXIF orientation is
+ * passed on to the detector, so 1D codes in photos taken in portrait decode too.  Each file's
+ * result is posted to {@link ImageScanStream} as soon as it is decoded, in completion order.
+ */
+final class ImageBatchScanner {
+    static final int DEFAULT_MAX_IMAGE_SIZE = 2048;
+    private static final int MAX_THREADS = 4;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    // Shared by all batches, so that concurrent batches do not add threads.  Guarded by
+    // ImageBatchScanner.class.
+    private static ThreadPoolExecutor executor;
+
+    private final Context context;
+    private final int barcodeFormats;
+    private final DecoderEngine engine;
+    private final int maxImageSize;
+    private final ImageScanStream stream;
+
+    // This lock guards all of the member variables below.
+    private final Object lock = new Object();
+    // Every detector of the batch, released once the batch is done, and those not in use.
+    private final List<Detector<Barcode>> detectors = new ArrayList<>();
+    private final ArrayDeque<Detector<Barcode>> idleDetectors = new ArrayDeque<>();
+
+    /**
+     * @param maxImageSize the largest width or height an image is decoded at
+     */
+    ImageBatchScanner(Context context, int barcodeFormats, DecoderEngine engine, int maxImageSize,
+                      ImageScanStream stream) {
+        this.context = context.getApplicationContext();
+        this.barcodeFormats = barcodeFormats;
+        this.engine = engine;
+        this.maxImageSize = Math.max(1, maxImageSize);
+        this.stream = stream;
+    }
+
+    /**
+     * Decodes the files in the background, posting one result per file tagged with the batch id.
+     *
+     * @param onDone run on the main thread once every file has been posted
+     */
+    void scan(final int batchId, final List<String> paths, final Runnable onDone) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        if (paths.isEmpty()) {
+            mainHandler.post(onDone);
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(paths.size());
+        ThreadPoolExecutor executor = getExecutor();
+        for (final String path : paths) {
+            executor.execute(() -> {
+                Map<String, Object> result = new HashMap<>();
+                result.put("batchId", batchId);
+                result.put("path", path);
+                try {
+                    scanFile(path, result);
+                } catch (Throwable t) {
+                    // E.g. an OutOfMemoryError decoding the image; the batch goes on
+                    result.put("error", t.getMessage() != null ? t.getMessage() : t.toString());
+                } finally {
+                    stream.post(result);
+                    if (remaining.decrementAndGet() == 0) {
+                        releaseDetectors();
+                        mainHandler.post(onDone);
+                    }
+                }
+            });
+        }
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads,
+                    IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(runnable, "ImageScanner-" + threadCount.incrementAndGet()));
+            // No threads are kept around between batches
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Decodes one file into its result: the barcodes found, or why there are none.
+     */
+    private void scanFile(String path, Map<String, Object> result) {
+        List<String> barcodes = new ArrayList<>();
+        result.put("barcodes", barcodes);
+
+        Bitmap bitmap = decodeSubsampled(path);
+        if (bitmap == null) {
+            result.put("error", "Could not decode image: " + path);
+            return;
+        }
+        Detector<Barcode> detector = acquireDetector();
+        try {
+            Frame frame = new Frame.Builder()
+                    .setBitmap(bitmap)
+                    .setRotation(readRotation(path))
+                    .build();
+            SparseArray<Barcode> detected = detector.detect(frame);
+            for (int i = 0; i < detected.size(); ++i) {
+                barcodes.add(detected.valueAt(i).rawValue);
+            }
+        } catch (RuntimeException e) {
+            result.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            bitmap.recycle();
+            synchronized (lock) {
+                idleDetectors.push(detector);
+            }
+        }
+    }
+
+    /**
+     * Decodes the file subsampled so that neither side exceeds the maximum image size, or returns
+     * null if it is not an image.
+     */
+    private Bitmap decodeSubsampled(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / sampleSize > maxImageSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * Returns the {@code Frame.ROTATION_*} value for the EXIF orientation of the file.
+     */
+    private static int readRotation(String path) {
+        int orientation;
+        try {
+            orientation = new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return Frame.ROTATION_0;
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return Frame.ROTATION_90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return Frame.ROTATION_180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return Frame.ROTATION_270;
+            default:
+                return Frame.ROTATION_0;
+        }
+    }
+
+    private Detector<Barcode> acquireDetector() {
+        synchronized (lock) {
+            if (!idleDetectors.isEmpty()) {
+                return idleDetectors.pop();
+            }
+        }
+        Detector<Barcode> detector = PreparedScanner.createDetector(context, barcodeFormats, engine);
+        synchronized (lock) {
+            detectors.add(detector);
+        }
+        return detector;
+    }
+
+    private void releaseDetectors() {
+        synchronized (lock) {
+            for (Detector<Barcode> detector : detectors) {
+                detector.release();
+            }
+            detectors.clear();
+            idleDetectors.clear();
+        }
+    }
+}
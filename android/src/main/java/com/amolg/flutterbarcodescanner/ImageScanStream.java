@@ -0,0 +1,41 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Delivers the per-file results of {@link ImageBatchScanner} to the
+ * {@code flutter_barcode_scanner_images} event channel.  Results may be posted from any thread;
+ * each is sent as its own Map event tagged with the id of its batch.
+ */
+class ImageScanStream implements EventChannel.StreamHandler {
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the main thread.
+    private EventChannel.EventSink mSink;
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        mSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        mSink = null;
+    }
+
+    /**
+     * Queues a result for delivery.  May be called from a decoding thread.
+     */
+    void post(final Map<String, Object> result) {
+        mMainHandler.post(() -> {
+            if (mSink != null) {
+                mSink.success(result);
+            }
+        });
+    }
+}
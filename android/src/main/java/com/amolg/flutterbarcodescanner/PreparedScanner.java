@@ -0,0 +1,405 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.core.app.ActivityCompat;
+
+import com.amolg.flutterbarcodescanner.camera.AutoTorch;
+import com.amolg.flutterbarcodescanner.camera.AutoZoom;
+import com.amolg.flutterbarcodescanner.camera.CameraSource;
+import com.amolg.flutterbarcodescanner.camera.FrameRateGovernor;
+import com.amolg.flutterbarcodescanner.camera.RefocusTrigger;
+import com.amolg.flutterbarcodescanner.camera.ScanMetrics;
+import com.amolg.flutterbarcodescanner.camera.SharpnessGate;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The detector and camera of a scanner, set up ahead of the scan and kept in a process wide
+ * holder so that {@link BarcodeCaptureActivity} does not rebuild them on every scan.
+ * <p/>
+ * {@link #prepare(Context, Config)} builds the detector, checks Google Play Services and opens
+ * the camera off the main thread.  The activity gets the prepared scanner with
+ * {@link #acquire(Context, Config)}, attaches its own processor, and hands the scanner back with
+ * {@link #recycle(PreparedScanner, long)} when it finishes, so that the next scan reuses the
+ * detector.  The camera can be kept open for a while as well, so that back-to-back scans only
+ * reattach the preview.  A camera opened ahead of a scan that does not come, or kept open after
+ * one, is closed again after a timeout.
+ */
+final class PreparedScanner {
+    private static final long OPEN_CAMERA_TIMEOUT_MILLIS = 10000;
+    private static final float IDLE_DETECTION_FPS = 5.0f;
+    private static final long IDLE_TIMEOUT_MILLIS = 3000;
+    private static final int ONE_D_DOWNSCALE_FACTOR = 2;
+    private static final float SHARPNESS_THRESHOLD = 0.5f;
+    private static final int MAX_BLURRY_FRAMES_SKIPPED = 10;
+    private static final long REFOCUS_INTERVAL_MILLIS = 2000;
+    // Mean luma of the scan window; a label lit by the torch alone stays below the off threshold
+    private static final float TORCH_ON_BELOW_LUMA = 40.0f;
+    private static final float TORCH_OFF_ABOVE_LUMA = 170.0f;
+    private static final long TORCH_MIN_DWELL_MILLIS = 3000;
+    // Zoom until a code spans this much of the scan window, a quarter more at a time
+    private static final float ZOOM_TARGET_COVERAGE = 0.3f;
+    private static final float MAX_AUTO_ZOOM = 3.0f;
+    private static final float ZOOM_STEP = 1.25f;
+    private static final long ZOOM_INTERVAL_MILLIS = 400;
+    // How often a held ZXing fallback checks whether Play Services can take over
+    private static final long FALLBACK_CHECK_INTERVAL_MILLIS = 60000;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable closeIdleCamera = PreparedScanner::closeIdleCamera;
+
+    // Guarded by PreparedScanner.class.
+    private static PreparedScanner held;
+    // The prepare() still building its scanner and the config it builds for, guarded by
+    // PreparedScanner.class.
+    private static Future<?> preparing;
+    private static Config preparingConfig;
+    // When the last stale fallback check ran, guarded by PreparedScanner.class.
+    private static long lastFallbackCheckMillis = -1;
+
+    /**
+     * What a scanner is built for.  A held scanner is only reused for an identical config.
+     */
+    static final class Config {
+        final int barcodeFormats;
+        final boolean useCamera2;
+        final int detectionWorkers;
+        final DecoderEngine engine;
+
+        Config(int barcodeFormats, boolean useCamera2, int detectionWorkers, DecoderEngine engine) {
+            this.barcodeFormats = barcodeFormats;
+            this.engine = engine;
+            this.useCamera2 = useCamera2;
+            // More workers than cores only adds contention
+            this.detectionWorkers = Math.max(1, Math.min(detectionWorkers, Runtime.getRuntime().availableProcessors()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Config)) {
+                return false;
+            }
+            Config other = (Config) o;
+            return barcodeFormats == other.barcodeFormats && useCamera2 == other.useCamera2
+                    && detectionWorkers == other.detectionWorkers && engine == other.engine;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((barcodeFormats * 31 + (useCamera2 ? 1 : 0)) * 31 + detectionWorkers) * 31 + engine.hashCode();
+        }
+    }
+
+    private final Context context;
+    private final Config config;
+    private final Detector<Barcode> detector;
+    // The engine the detectors run on, AUTO resolved
+    private final DecoderEngine engine;
+    private final ProcessorSlot processorSlot = new ProcessorSlot();
+    private final AutoZoom autoZoom = new AutoZoom(ZOOM_TARGET_COVERAGE, MAX_AUTO_ZOOM, ZOOM_STEP, ZOOM_INTERVAL_MILLIS);
+    private final CameraSource cameraSource;
+    private final int playServicesStatus;
+
+    private PreparedScanner(Context context, Config config) {
+        this.context = context;
+        this.config = config;
+        detector = createDetector(context, config.barcodeFormats, config.engine);
+        engine = detector instanceof ZXingBarcodeDetector ? DecoderEngine.ZXING : DecoderEngine.GMS;
+
+        // Back off to a low detection rate while nothing has been in view for a while
+        FrameRateGovernor governor = new FrameRateGovernor(IDLE_DETECTION_FPS, IDLE_TIMEOUT_MILLIS);
+        // Focus on the finder again while nothing decodes, in case focus settled on the background
+        RefocusTrigger refocusTrigger = new RefocusTrigger(REFOCUS_INTERVAL_MILLIS);
+        Detector.Processor<Barcode> processor = governor.instrument(refocusTrigger.instrument(
+                autoZoom.instrument(ScanMetrics.get().instrument(processorSlot), Barcode::getBoundingBox)));
+        detector.setProcessor(processor);
+
+        CameraSource.Builder builder = new CameraSource.Builder(context, detector)
+                .setFacing(CameraSource.CAMERA_FACING_BACK)
+                .setRequestedPreviewSize(1600, 1024)
+                .setRequestedFps(15.0f)
+                .setUseCamera2(config.useCamera2)
+                .setFrameRateGovernor(governor)
+                .setRefocusTrigger(refocusTrigger)
+                // Motion blur and refocusing cost a detector pass each without a chance to decode
+                .setSharpnessGate(new SharpnessGate(SHARPNESS_THRESHOLD, MAX_BLURRY_FRAMES_SKIPPED));
+        if (config.detectionWorkers > 1) {
+            builder.setDetectionWorkers(config.detectionWorkers,
+                    () -> createDetector(context, config.barcodeFormats, engine),
+                    processor);
+        }
+        if (config.barcodeFormats != Barcode.ALL_FORMATS
+                && (config.barcodeFormats & ~BarcodeFormats.ONE_D_FORMATS) == 0) {
+            // 1D codes held up to the lens decode at a fraction of the preview resolution
+            builder.setDownscaledFirstPass(ONE_D_DOWNSCALE_FACTOR, PreparedScanner::scaleBarcode, processor);
+        }
+        cameraSource = builder.build();
+        // Only the Play Services detector needs Play Services
+        playServicesStatus = engine == DecoderEngine.ZXING ? ConnectionResult.SUCCESS
+                : GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(context);
+    }
+
+    /**
+     * Builds a scanner, opens its camera if the permission has been granted and holds it for the
+     * next scan.  A scanner already held for the same config is kept.  Blocks; call it off the
+     * main thread.
+     */
+    static void prepare(final Context context, final Config config) {
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            PreparedScanner scanner = take(config);
+            if (scanner == null) {
+                scanner = create(context, config);
+            }
+            scanner.openCamera();
+            hold(scanner);
+            scheduleCameraClose(OPEN_CAMERA_TIMEOUT_MILLIS);
+        }, null);
+        synchronized (PreparedScanner.class) {
+            preparing = task;
+            preparingConfig = config;
+        }
+        // A prepare that fails leaves the scan to build its own scanner
+        task.run();
+        synchronized (PreparedScanner.class) {
+            if (preparing == task) {
+                preparing = null;
+                preparingConfig = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the held scanner if it was built for the config, or a new one.  If a scanner is
+     * still being prepared for the config, waits for it, as a second scanner could not open the
+     * camera the first one is opening.  Blocks; call it off the main thread.
+     */
+    static PreparedScanner acquire(Context context, Config config) {
+        Future<?> pending;
+        synchronized (PreparedScanner.class) {
+            pending = config.equals(preparingConfig) ? preparing : null;
+        }
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (ExecutionException e) {
+                // Nothing held then; built below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        PreparedScanner scanner = take(config);
+        return scanner != null ? scanner : create(context, config);
+    }
+
+    /**
+     * Detaches the activity's processor and holds the scanner for the next scan.
+     *
+     * @param keepAliveMillis how long the camera, which must have been suspended, is kept open
+     *                        for the next scan; 0 if the camera has been stopped
+     */
+    static void recycle(PreparedScanner scanner, long keepAliveMillis) {
+        scanner.setProcessor(null);
+        scanner.cameraSource.setAutoTorch(null, null);
+        scanner.cameraSource.setAutoZoom(null);
+        hold(scanner);
+        if (keepAliveMillis > 0) {
+            scheduleCameraClose(keepAliveMillis);
+        }
+    }
+
+    /**
+     * Returns an auto torch with the thresholds scans use.
+     */
+    static AutoTorch createAutoTorch() {
+        return new AutoTorch(TORCH_ON_BELOW_LUMA, TORCH_OFF_ABOVE_LUMA, TORCH_MIN_DWELL_MILLIS);
+    }
+
+    /**
+     * Turns zooming in on small codes on or off for the current scan.  Off again once the scanner
+     * is recycled.
+     */
+    void setAutoZoom(boolean enabled) {
+        cameraSource.setAutoZoom(enabled ? autoZoom : null);
+    }
+
+    CameraSource getCameraSource() {
+        return cameraSource;
+    }
+
+    boolean isOperational() {
+        return detector.isOperational();
+    }
+
+    int getPlayServicesStatus() {
+        return playServicesStatus;
+    }
+
+    /**
+     * Sets the processor the detections of the next scan are delivered to.  The previous one is
+     * released.
+     */
+    void setProcessor(Detector.Processor<Barcode> processor) {
+        processorSlot.setDelegate(processor);
+    }
+
+    /**
+     * Builds a detector on the engine.  {@link DecoderEngine#AUTO} uses the Play Services
+     * detector if it is operational and ZXing otherwise.
+     */
+    static Detector<Barcode> createDetector(Context context, int barcodeFormats, DecoderEngine engine) {
+        if (engine != DecoderEngine.ZXING) {
+            BarcodeDetector detector = new BarcodeDetector.Builder(context)
+                    .setBarcodeFormats(barcodeFormats)
+                    .build();
+            if (engine == DecoderEngine.GMS || detector.isOperational()) {
+                return detector;
+            }
+            detector.release();
+        }
+        return new ZXingBarcodeDetector(barcodeFormats);
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private static PreparedScanner create(Context context, Config config) {
+        return new PreparedScanner(context.getApplicationContext(), config);
+    }
+
+    /**
+     * Returns the held scanner if it was built for the config, or null.  A scanner held for
+     * another config is released, as is one whose AUTO engine can now switch to Play Services.
+     */
+    private static PreparedScanner take(Config config) {
+        PreparedScanner scanner;
+        synchronized (PreparedScanner.class) {
+            scanner = held;
+            held = null;
+        }
+        mainHandler.removeCallbacks(closeIdleCamera);
+        if (scanner != null && (!scanner.config.equals(config) || scanner.isStaleFallback())) {
+            scanner.release();
+            return null;
+        }
+        return scanner;
+    }
+
+    private static void hold(PreparedScanner scanner) {
+        PreparedScanner previous;
+        synchronized (PreparedScanner.class) {
+            previous = held;
+            held = scanner;
+        }
+        if (previous != null && previous != scanner) {
+            previous.release();
+        }
+    }
+
+    private static void scheduleCameraClose(long delayMillis) {
+        mainHandler.removeCallbacks(closeIdleCamera);
+        mainHandler.postDelayed(closeIdleCamera, delayMillis);
+    }
+
+    private static void closeIdleCamera() {
+        PreparedScanner scanner;
+        synchronized (PreparedScanner.class) {
+            scanner = held;
+        }
+        if (scanner != null) {
+            scanner.cameraSource.stop();
+        }
+    }
+
+    /**
+     * Returns whether the scanner fell back to ZXing for the AUTO engine while the Play Services
+     * detector was not operational, which it is not while Play Services downloads it on first
+     * launch, and the Play Services detector has become operational since.  Building a detector
+     * to find out takes a while, so it is checked at most once a check interval.
+     */
+    private boolean isStaleFallback() {
+        if (config.engine != DecoderEngine.AUTO || engine != DecoderEngine.ZXING) {
+            return false;
+        }
+        long nowMillis = SystemClock.elapsedRealtime();
+        synchronized (PreparedScanner.class) {
+            if (lastFallbackCheckMillis >= 0 && nowMillis - lastFallbackCheckMillis < FALLBACK_CHECK_INTERVAL_MILLIS) {
+                return false;
+            }
+            lastFallbackCheckMillis = nowMillis;
+        }
+        BarcodeDetector detector = new BarcodeDetector.Builder(context)
+                .setBarcodeFormats(config.barcodeFormats)
+                .build();
+        boolean operational = detector.isOperational();
+        detector.release();
+        return operational;
+    }
+
+    private static void scaleBarcode(Barcode barcode, int factor) {
+        if (barcode.cornerPoints != null) {
+            for (Point point : barcode.cornerPoints) {
+                point.x *= factor;
+                point.y *= factor;
+            }
+        }
+    }
+
+    @SuppressWarnings("MissingPermission")
+    private void openCamera() {
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        try {
+            cameraSource.open();
+        } catch (RuntimeException e) {
+            // The scan opens the camera itself then.
+        }
+    }
+
+    private void release() {
+        cameraSource.release();
+    }
+
+    /**
+     * Processor installed on the detector once, forwarding to the processor of the current scan.
+     */
+    private static final class ProcessorSlot implements Detector.Processor<Barcode> {
+        private volatile Detector.Processor<Barcode> delegate;
+
+        void setDelegate(Detector.Processor<Barcode> processor) {
+            Detector.Processor<Barcode> previous = delegate;
+            delegate = processor;
+            if (previous != null && previous != processor) {
+                previous.release();
+            }
+        }
+
+        @Override
+        public void release() {
+            setDelegate(null);
+        }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Barcode> detections) {
+            Detector.Processor<Barcode> processor = delegate;
+            if (processor != null) {
+                processor.receiveDetections(detections);
+            }
+        }
+    }
+}
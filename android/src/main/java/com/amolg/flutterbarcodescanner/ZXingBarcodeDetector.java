@@ -0,0 +1,233 @@
+package com.amolg.flutterbarcodescanner;
+
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.amolg.flutterbarcodescanner.camera.FrameRotator;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Detector} backed by the pure Java ZXing decoder, a drop-in replacement for the Play
+ * Services {@code BarcodeDetector} that works without Google Play Services.
+ * <p/>
+ * Frames are decoded on their luma plane, turned upright first so that 1D codes lie along the
+ * rows the reader scans, and results are returned as {@link Barcode}s in upright frame
+ * coordinates, as the Play Services detector does.  One code is decoded per frame.  A code keeps
+ * its id for as long as it is in view, so that a {@code MultiProcessor} tracks it like a Play
+ * Services detection.
+ * <p/>
+ * Not thread safe; each detection thread needs its own instance.
+ */
+final class ZXingBarcodeDetector extends Detector<Barcode> {
+    private final MultiFormatReader reader = new MultiFormatReader();
+
+    // Reused between frames.
+    private byte[] luma;
+    private byte[] upright;
+
+    /**
+     * @param barcodeFormats the format mask to decode, as for the Play Services detector
+     */
+    ZXingBarcodeDetector(int barcodeFormats) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, toZXingFormats(barcodeFormats));
+        reader.setHints(hints);
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        SparseArray<Barcode> barcodes = new SparseArray<>();
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int rotation = metadata.getRotation();
+
+        byte[] pixels = toUpright(frame.getGrayscaleImageData(), width, height, rotation);
+        if (rotation % 2 != 0) {
+            int swap = width;
+            width = height;
+            height = swap;
+        }
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(pixels, width, height,
+                0, 0, width, height, false);
+        try {
+            Barcode barcode = toBarcode(reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source))));
+            if (barcode != null) {
+                barcodes.append(barcode.format * 31 + barcode.rawValue.hashCode(), barcode);
+            }
+        } catch (NotFoundException e) {
+            // Nothing in view
+        } finally {
+            reader.reset();
+        }
+        return barcodes;
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Returns the luma plane turned upright, in an array reused between calls where possible.
+     */
+    private byte[] toUpright(ByteBuffer data, int width, int height, int rotation) {
+        int size = width * height;
+        byte[] src;
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            src = data.array();
+        } else {
+            if (luma == null || luma.length < size) {
+                luma = new byte[size];
+            }
+            data.position(0);
+            data.get(luma, 0, size);
+            data.position(0);
+            src = luma;
+        }
+        if (rotation == Frame.ROTATION_0) {
+            return src;
+        }
+
+        if (upright == null || upright.length < size) {
+            upright = new byte[size];
+        }
+        FrameRotator.rotateLuma(src, width, height, rotation, upright);
+        return upright;
+    }
+
+    private static Barcode toBarcode(Result result) {
+        int format = fromZXingFormat(result.getBarcodeFormat());
+        if (format == 0 || result.getText() == null) {
+            return null;
+        }
+        Barcode barcode = new Barcode();
+        barcode.format = format;
+        barcode.valueFormat = Barcode.TEXT;
+        barcode.rawValue = result.getText();
+        barcode.displayValue = result.getText();
+        barcode.rawBytes = toPayloadBytes(result);
+        barcode.cornerPoints = toCornerPoints(result.getResultPoints());
+        return barcode;
+    }
+
+    /**
+     * Returns the bytes encoded in the code, like the Play Services detector does.  ZXing's own
+     * raw bytes are the codewords, with mode and length headers, and are missing for 1D codes.
+     * The payload is the concatenated byte segments where the decoder reports them, and the
+     * decoded text as UTF-8 otherwise, e.g. for numeric QR codes and 1D codes.
+     */
+    @SuppressWarnings("unchecked")
+    private static byte[] toPayloadBytes(Result result) {
+        Map<ResultMetadataType, Object> metadata = result.getResultMetadata();
+        Object segments = metadata != null ? metadata.get(ResultMetadataType.BYTE_SEGMENTS) : null;
+        if (segments instanceof List && !((List<?>) segments).isEmpty()) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            for (byte[] segment : (List<byte[]>) segments) {
+                payload.write(segment, 0, segment.length);
+            }
+            return payload.toByteArray();
+        }
+        return result.getText().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Returns the rectangle spanned by the result points, clockwise from the top left, as the
+     * corner points of a Play Services barcode.  1D codes only report points on the scan line.
+     */
+    private static Point[] toCornerPoints(ResultPoint[] points) {
+        if (points == null || points.length == 0) {
+            return new Point[0];
+        }
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (ResultPoint point : points) {
+            if (point == null) {
+                continue;
+            }
+            left = Math.min(left, point.getX());
+            top = Math.min(top, point.getY());
+            right = Math.max(right, point.getX());
+            bottom = Math.max(bottom, point.getY());
+        }
+        if (left > right) {
+            return new Point[0];
+        }
+        return new Point[]{
+                new Point((int) left, (int) top),
+                new Point((int) right, (int) top),
+                new Point((int) right, (int) bottom),
+                new Point((int) left, (int) bottom)
+        };
+    }
+
+    private static List<BarcodeFormat> toZXingFormats(int barcodeFormats) {
+        boolean all = barcodeFormats == Barcode.ALL_FORMATS;
+        List<BarcodeFormat> formats = new ArrayList<>();
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            int mask = fromZXingFormat(format);
+            if (mask != 0 && (all || (barcodeFormats & mask) != 0)) {
+                formats.add(format);
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * Returns the Play Services format of a ZXing format, or 0 for formats the plugin does not
+     * offer.
+     */
+    private static int fromZXingFormat(BarcodeFormat format) {
+        switch (format) {
+            case AZTEC:
+                return Barcode.AZTEC;
+            case CODABAR:
+                return Barcode.CODABAR;
+            case CODE_39:
+                return Barcode.CODE_39;
+            case CODE_93:
+                return Barcode.CODE_93;
+            case CODE_128:
+                return Barcode.CODE_128;
+            case DATA_MATRIX:
+                return Barcode.DATA_MATRIX;
+            case EAN_8:
+                return Barcode.EAN_8;
+            case EAN_13:
+                return Barcode.EAN_13;
+            case ITF:
+                return Barcode.ITF;
+            case PDF_417:
+                return Barcode.PDF417;
+            case QR_CODE:
+                return Barcode.QR_CODE;
+            case UPC_A:
+                return Barcode.UPC_A;
+            case UPC_E:
+                return Barcode.UPC_E;
+            default:
+                return 0;
+        }
+    }
+}
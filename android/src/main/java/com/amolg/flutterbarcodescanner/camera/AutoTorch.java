@@ -0,0 +1,133 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides when to switch the torch on and off from the brightness of the frames, so that codes in
+ * dim places decode without the user reaching for the flash button.
+ * <p/>
+ * Brightness is the mean luma inside the region of interest, sampled on a sparse grid of about
+ * {@link #SAMPLES_PER_SIDE} points per side and smoothed over a few frames.  The torch goes on
+ * once it falls below the on threshold and off once it rises above the off threshold.  The gap
+ * between the two keeps the torch from flickering, and the off threshold has to lie above what
+ * the torch alone makes of a close label, since the torch brightens the frames it is judged by.
+ * After each switch the torch keeps its state for at least the dwell time, which also lets the
+ * exposure settle.
+ * <p/>
+ * Thread safe, so detection workers can share one instance.
+ */
+public class AutoTorch {
+    private static final int SAMPLES_PER_SIDE = 32;
+    // Weight of the newest frame in the smoothed brightness.
+    private static final float SMOOTHING = 0.25f;
+
+    private final float mOnBelowLuma;
+    private final float mOffAboveLuma;
+    private final long mMinDwellMillis;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private float mSmoothedLuma = -1;
+    private boolean mTorchOn;
+    private long mLastSwitchMillis = -1;
+
+    /**
+     * @param onBelowLuma    mean luma (0 to 255) below which the torch is switched on
+     * @param offAboveLuma   mean luma above which the torch is switched off again; at least
+     *                       {@code onBelowLuma}
+     * @param minDwellMillis how long the torch keeps its state after a switch, and after starting
+     */
+    public AutoTorch(float onBelowLuma, float offAboveLuma, long minDwellMillis) {
+        if (onBelowLuma < 0 || offAboveLuma < onBelowLuma) {
+            throw new IllegalArgumentException("Invalid luma thresholds: " + onBelowLuma + ", " + offAboveLuma);
+        }
+        mOnBelowLuma = onBelowLuma;
+        mOffAboveLuma = offAboveLuma;
+        mMinDwellMillis = Math.max(0, minDwellMillis);
+    }
+
+    /**
+     * Forgets the brightness measured so far, e.g. when the camera is started, and starts the dwell
+     * time with the torch in the given state.
+     */
+    public void reset(boolean torchOn, long nowMillis) {
+        synchronized (mLock) {
+            mSmoothedLuma = -1;
+            mTorchOn = torchOn;
+            mLastSwitchMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Records the brightness of the luma plane at the start of {@code frame}.
+     *
+     * @return whether the torch should now be switched, see {@link #isTorchOn()}
+     */
+    public boolean update(ByteBuffer frame, int width, int height, long nowMillis) {
+        return update(measureMeanLuma(frame, width, height), nowMillis);
+    }
+
+    /**
+     * Records the brightness of one frame, as returned by {@link #measureMeanLuma}.
+     *
+     * @return whether the torch should now be switched, see {@link #isTorchOn()}
+     */
+    public boolean update(float meanLuma, long nowMillis) {
+        synchronized (mLock) {
+            mSmoothedLuma = mSmoothedLuma < 0
+                    ? meanLuma : mSmoothedLuma + SMOOTHING * (meanLuma - mSmoothedLuma);
+            if (mLastSwitchMillis >= 0 && nowMillis - mLastSwitchMillis < mMinDwellMillis) {
+                return false;
+            }
+            boolean torchOn = mTorchOn ? mSmoothedLuma <= mOffAboveLuma : mSmoothedLuma < mOnBelowLuma;
+            if (torchOn == mTorchOn) {
+                return false;
+            }
+            mTorchOn = torchOn;
+            mLastSwitchMillis = nowMillis;
+            // The torch changes the brightness, so the old average no longer applies.
+            mSmoothedLuma = -1;
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether the torch should be on.
+     */
+    public boolean isTorchOn() {
+        synchronized (mLock) {
+            return mTorchOn;
+        }
+    }
+
+    /**
+     * Returns the mean of the {@code width} x {@code height} luma plane at the start of
+     * {@code frame}, sampled on a sparse grid.
+     */
+    public static float measureMeanLuma(ByteBuffer frame, int width, int height) {
+        int stepX = Math.max(1, width / SAMPLES_PER_SIDE);
+        int stepY = Math.max(1, height / SAMPLES_PER_SIDE);
+        long sum = 0;
+        int count = 0;
+        if (frame.hasArray()) {
+            byte[] data = frame.array();
+            int offset = frame.arrayOffset();
+            for (int y = stepY / 2; y < height; y += stepY) {
+                int row = offset + y * width;
+                for (int x = stepX / 2; x < width; x += stepX) {
+                    sum += data[row + x] & 0xff;
+                    count++;
+                }
+            }
+        } else {
+            for (int y = stepY / 2; y < height; y += stepY) {
+                int row = y * width;
+                for (int x = stepX / 2; x < width; x += stepX) {
+                    sum += frame.get(row + x) & 0xff;
+                    count++;
+                }
+            }
+        }
+        return count > 0 ? (float) sum / count : 0.0f;
+    }
+}
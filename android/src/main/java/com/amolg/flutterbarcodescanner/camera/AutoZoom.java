@@ -0,0 +1,171 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+/**
+ * Zooms in on codes that cover too little of the frame, such as labels on a high shelf, so that
+ * their modules span enough pixels to decode reliably.
+ * <p/>
+ * Coverage is the longer side of the largest detected code divided by the longer side of the
+ * frame it was detected in, which is the region of interest when one is set.  Below the target
+ * coverage the zoom steps in towards it, by at most the step factor at a time and at most once
+ * per interval, so that the preview moves smoothly and the detector sees a few frames at each
+ * level.  A code covering most of the frame makes it step back out.  The zoom never exceeds the
+ * maximum, and the camera may cap it further.
+ * <p/>
+ * The zoom is derived from the detected boxes by
+ * {@link #instrument(Detector.Processor, BoundsReader)}, see
+ * {@link ScanMetrics#instrument(Detector.Processor)}, and applied by
+ * {@link CameraSource#setAutoZoom(AutoZoom)}.
+ */
+public class AutoZoom {
+    // Coverage above which the code may get cut off by the edges of the frame.
+    private static final float MAX_COVERAGE = 0.8f;
+
+    /**
+     * Reads the bounding box of a detected item in the coordinates of the frame it was detected in.
+     */
+    public interface BoundsReader<T> {
+        Rect getBounds(T item);
+    }
+
+    /**
+     * Notified when the zoom should change.  Called on the thread that delivered the detections.
+     */
+    interface Listener {
+        void onZoomChanged(float zoom);
+    }
+
+    private final float mTargetCoverage;
+    private final float mMaxZoom;
+    private final float mStep;
+    private final long mMinIntervalMillis;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private float mZoom = 1.0f;
+    private long mLastChangeMillis = -1;
+    private Listener mListener;
+
+    /**
+     * @param targetCoverage    fraction (0 to 1) of the frame the longer side of a code should span
+     * @param maxZoom           highest zoom ratio to step in to
+     * @param step              largest factor (above 1) the zoom changes by at once
+     * @param minIntervalMillis shortest time between two zoom changes
+     */
+    public AutoZoom(float targetCoverage, float maxZoom, float step, long minIntervalMillis) {
+        if (targetCoverage <= 0 || targetCoverage >= MAX_COVERAGE) {
+            throw new IllegalArgumentException("Invalid target coverage: " + targetCoverage);
+        }
+        if (maxZoom < 1 || step <= 1) {
+            throw new IllegalArgumentException("Invalid zoom limits: " + maxZoom + ", " + step);
+        }
+        mTargetCoverage = targetCoverage;
+        mMaxZoom = maxZoom;
+        mStep = step;
+        mMinIntervalMillis = Math.max(0, minIntervalMillis);
+    }
+
+    /**
+     * Goes back to no zoom, e.g. when a scan ends.  The listener is not notified.
+     */
+    public void reset() {
+        synchronized (mLock) {
+            mZoom = 1.0f;
+            mLastChangeMillis = -1;
+        }
+    }
+
+    /**
+     * Returns the zoom ratio the camera should use.
+     */
+    public float getZoom() {
+        synchronized (mLock) {
+            return mZoom;
+        }
+    }
+
+    /**
+     * Records the coverage of the largest code detected in one frame, 0 if there was none.
+     *
+     * @return the new zoom ratio, or 0 if the zoom stays
+     */
+    public float update(float coverage, long nowMillis) {
+        Listener listener;
+        float zoom;
+        synchronized (mLock) {
+            if (coverage <= 0
+                    || (mLastChangeMillis >= 0 && nowMillis - mLastChangeMillis < mMinIntervalMillis)) {
+                return 0;
+            }
+            zoom = mZoom;
+            if (coverage < mTargetCoverage) {
+                zoom = Math.min(mMaxZoom, mZoom * Math.min(mStep, mTargetCoverage / coverage));
+            } else if (coverage > MAX_COVERAGE) {
+                zoom = Math.max(1.0f, mZoom / mStep);
+            }
+            if (Math.abs(zoom - mZoom) < 0.01f) {
+                return 0;
+            }
+            mZoom = zoom;
+            mLastChangeMillis = nowMillis;
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onZoomChanged(zoom);
+        }
+        return zoom;
+    }
+
+    /**
+     * Wraps the processor detections are delivered to, so that the zoom follows the size of the
+     * detected codes.
+     */
+    public <T> Detector.Processor<T> instrument(final Detector.Processor<T> delegate,
+                                                final BoundsReader<T> bounds) {
+        return new Detector.Processor<T>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<T> detections) {
+                update(measureCoverage(detections, bounds), SystemClock.elapsedRealtime());
+                delegate.receiveDetections(detections);
+            }
+        };
+    }
+
+    void setListener(Listener listener) {
+        synchronized (mLock) {
+            mListener = listener;
+        }
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private static <T> float measureCoverage(Detector.Detections<T> detections, BoundsReader<T> bounds) {
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        SparseArray<T> items = detections.getDetectedItems();
+        if (metadata == null || items.size() == 0) {
+            return 0;
+        }
+        int frameSide = Math.max(metadata.getWidth(), metadata.getHeight());
+        int largest = 0;
+        for (int i = 0; i < items.size(); ++i) {
+            Rect box = bounds.getBounds(items.valueAt(i));
+            if (box != null) {
+                largest = Math.max(largest, Math.max(box.width(), box.height()));
+            }
+        }
+        return frameSide > 0 ? (float) largest / frameSide : 0;
+    }
+}
@@ -0,0 +1,739 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame source built on the Camera2 API.  Frames are read from an {@link ImageReader} in
+ * {@link ImageFormat#YUV_420_888} and the Y plane's direct buffer is handed to the pipeline
+ * without copying; the barcode detector only looks at luminance.  The image stays acquired until
+ * the pipeline releases the frame.  Devices whose Y plane rows are padded get the plane packed
+ * into a reusable direct buffer instead.
+ * <p/>
+ * Use {@link #isSupported(Context, int)} to decide between this and the Camera1 preview; devices
+ * with only legacy Camera2 support are better served by the latter.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2FrameSource implements FrameSource {
+    private static final long OPEN_TIMEOUT_MILLIS = 2500;
+    // How long a focus on the focus region holds before continuous focus resumes.
+    private static final long FOCUS_HOLD_MILLIS = 3000;
+
+    private final Context mContext;
+    private final int mFacing;
+    private final int mRequestedWidth;
+    private final int mRequestedHeight;
+    private final float mRequestedFps;
+    private final int mMaxImages;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private CaptureRequest.Builder mRequestBuilder;
+    private CameraCharacteristics mCharacteristics;
+    private ImageReader mImageReader;
+    private SurfaceHolder mPreviewHolder;
+    private SurfaceTexture mPreviewTexture;
+    private Surface mPreviewTextureSurface;
+    private FrameCallback mCallback;
+    private Size mFrameSize;
+    private int mRotation;
+    private boolean mFlashAvailable;
+    private boolean mTorchOn;
+    private boolean mContinuousFocus;
+    private float mZoom = 1.0f;
+    // Normalized upright coordinates; the full frame leaves focus and metering to the camera.
+    private final float[] mFocusRegion = {0.0f, 0.0f, 1.0f, 1.0f};
+    private long mStartTimeMillis;
+    private long mDroppedFrames;
+
+    /**
+     * Frames handed to the pipeline, mapped to the image backing them, or to null for packed
+     * copies.  Keyed by identity, since ByteBuffer equality compares contents.
+     */
+    private final Map<ByteBuffer, Image> mFramesInFlight = new IdentityHashMap<>();
+    private final ArrayDeque<ByteBuffer> mFreePackedBuffers = new ArrayDeque<>();
+
+    private final Runnable mCancelFocus = this::cancelFocus;
+
+    /**
+     * Creates a Camera2 frame source.
+     *
+     * @param facing    {@link CameraSource#CAMERA_FACING_BACK} or
+     *                  {@link CameraSource#CAMERA_FACING_FRONT}
+     * @param maxImages number of images the reader can have acquired at once; at least 3, so that
+     *                  a new frame can be read while the pipeline holds a pending and a current one
+     */
+    public Camera2FrameSource(Context context, int facing, int requestedWidth, int requestedHeight,
+                              float requestedFps, int maxImages) {
+        mContext = context;
+        mFacing = facing;
+        mRequestedWidth = requestedWidth;
+        mRequestedHeight = requestedHeight;
+        mRequestedFps = requestedFps;
+        mMaxImages = Math.max(3, maxImages);
+    }
+
+    /**
+     * Returns whether the device has a camera facing the given way with better than legacy
+     * Camera2 support.
+     */
+    public static boolean isSupported(Context context, int facing) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = findCameraId(manager, facing);
+            if (cameraId == null) {
+                return false;
+            }
+            Integer level = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the surface the preview is displayed on, or null to run without a visible preview.
+     * Takes effect on the next {@link #start(FrameCallback)}.
+     */
+    public void setPreviewDisplay(SurfaceHolder holder) {
+        synchronized (mLock) {
+            setPreviewTextureLocked(null);
+            mPreviewHolder = holder;
+        }
+    }
+
+    /**
+     * Sets the texture the preview is rendered into, e.g. one shown by Flutter, or null to run
+     * without a visible preview.  Takes effect on the next {@link #start(FrameCallback)}.
+     */
+    public void setPreviewTexture(SurfaceTexture texture) {
+        synchronized (mLock) {
+            mPreviewHolder = null;
+            setPreviewTextureLocked(texture);
+        }
+    }
+
+    /**
+     * Turns the torch on or off.
+     *
+     * @return {@code true} if the camera has a flash unit
+     */
+    public boolean setTorch(boolean on) {
+        synchronized (mLock) {
+            mTorchOn = on;
+            if (mCaptureSession == null) {
+                return true;
+            }
+            if (!mFlashAvailable) {
+                return false;
+            }
+            mRequestBuilder.set(CaptureRequest.FLASH_MODE,
+                    on ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+            return updateRepeatingRequest();
+        }
+    }
+
+    /**
+     * Points autofocus and auto exposure at a region given in normalized coordinates of the
+     * upright frame, or back at the whole scene for the full frame.  Takes effect right away if
+     * the camera is running.
+     */
+    public void setFocusRegion(float left, float top, float right, float bottom) {
+        synchronized (mLock) {
+            mFocusRegion[0] = left;
+            mFocusRegion[1] = top;
+            mFocusRegion[2] = right;
+            mFocusRegion[3] = bottom;
+            if (mCaptureSession != null) {
+                setFocusRegionLocked();
+                updateRepeatingRequest();
+            }
+        }
+    }
+
+    /**
+     * Zooms in digitally by cropping the sensor, for the preview and the frames alike.  Takes
+     * effect right away if the camera is running, otherwise on the next start.
+     *
+     * @param zoom the zoom ratio, 1 for none
+     * @return the zoom ratio in use, capped at the camera's maximum once it has been opened
+     */
+    public float setZoom(float zoom) {
+        synchronized (mLock) {
+            mZoom = Math.max(1.0f, zoom);
+            if (mCaptureSession != null) {
+                // The focus region is mapped onto the cropped sensor area
+                setZoomLocked();
+                setFocusRegionLocked();
+                updateRepeatingRequest();
+            }
+            return mZoom;
+        }
+    }
+
+    /**
+     * Runs one autofocus scan on the focus region and holds focus there for a few seconds before
+     * continuous focus resumes.
+     *
+     * @return {@code false} if the camera is not running or cannot focus
+     */
+    public boolean triggerFocus() {
+        synchronized (mLock) {
+            if (mCaptureSession == null || !mContinuousFocus) {
+                return false;
+            }
+            mCameraHandler.removeCallbacks(mCancelFocus);
+            if (!captureFocusTriggerLocked(CameraMetadata.CONTROL_AF_TRIGGER_START)) {
+                return false;
+            }
+            mCameraHandler.postDelayed(mCancelFocus, FOCUS_HOLD_MILLIS);
+            return true;
+        }
+    }
+
+    @Override
+    public void start(FrameCallback callback) throws IOException {
+        synchronized (mLock) {
+            if (mCaptureSession != null) {
+                return;
+            }
+            mCallback = callback;
+            mStartTimeMillis = SystemClock.elapsedRealtime();
+
+            try {
+                // The device is still open if the source was only suspended.
+                if (mCameraDevice == null) {
+                    CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+                    String cameraId = findCameraId(manager, mFacing);
+                    if (cameraId == null) {
+                        throw new IOException("Could not find requested camera.");
+                    }
+                    mCharacteristics = manager.getCameraCharacteristics(cameraId);
+                    mFrameSize = selectSize(mCharacteristics, mRequestedWidth, mRequestedHeight);
+                    mRotation = computeRotation(mCharacteristics);
+                    Boolean flashAvailable = mCharacteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+                    mFlashAvailable = flashAvailable != null && flashAvailable;
+
+                    mCameraThread = new HandlerThread("Camera2FrameSource");
+                    mCameraThread.start();
+                    mCameraHandler = new Handler(mCameraThread.getLooper());
+
+                    mCameraDevice = openCamera(manager, cameraId);
+                }
+
+                mImageReader = ImageReader.newInstance(mFrameSize.getWidth(), mFrameSize.getHeight(),
+                        ImageFormat.YUV_420_888, mMaxImages);
+                mImageReader.setOnImageAvailableListener(this::onImageAvailable, mCameraHandler);
+
+                List<Surface> outputs = new ArrayList<>();
+                outputs.add(mImageReader.getSurface());
+                if (mPreviewHolder != null) {
+                    mPreviewHolder.setFixedSize(mFrameSize.getWidth(), mFrameSize.getHeight());
+                    outputs.add(mPreviewHolder.getSurface());
+                } else if (mPreviewTexture != null) {
+                    mPreviewTexture.setDefaultBufferSize(mFrameSize.getWidth(), mFrameSize.getHeight());
+                    if (mPreviewTextureSurface == null) {
+                        mPreviewTextureSurface = new Surface(mPreviewTexture);
+                    }
+                    outputs.add(mPreviewTextureSurface);
+                }
+
+                mRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                for (Surface surface : outputs) {
+                    mRequestBuilder.addTarget(surface);
+                }
+                mContinuousFocus = supportsAfMode(mCharacteristics, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                if (mContinuousFocus) {
+                    mRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                            CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                }
+                setZoomLocked();
+                setFocusRegionLocked();
+                Range<Integer> fpsRange = selectFpsRange(mCharacteristics, mRequestedFps);
+                if (fpsRange != null) {
+                    mRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                }
+                if (mFlashAvailable && mTorchOn) {
+                    mRequestBuilder.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_TORCH);
+                }
+
+                mCaptureSession = createCaptureSession(outputs);
+                mCaptureSession.setRepeatingRequest(mRequestBuilder.build(), null, mCameraHandler);
+            } catch (CameraAccessException | InterruptedException | RuntimeException e) {
+                stop();
+                throw new IOException("Could not start camera.", e);
+            } catch (IOException e) {
+                stop();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mLock) {
+            suspend();
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mCameraThread != null) {
+                mCameraThread.quitSafely();
+                mCameraThread = null;
+                mCameraHandler = null;
+            }
+            mCharacteristics = null;
+            setPreviewTextureLocked(null);
+        }
+    }
+
+    /**
+     * Stops delivering frames and closes the capture session, but keeps the camera device open so
+     * that the next {@link #start(FrameCallback)} only has to create a new session.
+     * {@link #stop()} closes the device.
+     */
+    public void suspend() {
+        synchronized (mLock) {
+            mCallback = null;
+            if (mCameraHandler != null) {
+                mCameraHandler.removeCallbacks(mCancelFocus);
+            }
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (mImageReader != null) {
+                // Closing the reader also closes any image still held by the pipeline.
+                mImageReader.close();
+                mImageReader = null;
+            }
+            mFramesInFlight.clear();
+            mRequestBuilder = null;
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        synchronized (mLock) {
+            return mFrameSize;
+        }
+    }
+
+    @Override
+    public int getRotation() {
+        synchronized (mLock) {
+            return mRotation;
+        }
+    }
+
+    @Override
+    public void releaseFrame(ByteBuffer data) {
+        synchronized (mLock) {
+            if (!mFramesInFlight.containsKey(data)) {
+                return;
+            }
+            Image image = mFramesInFlight.remove(data);
+            if (image != null) {
+                image.close();
+            } else {
+                mFreePackedBuffers.add(data);
+            }
+        }
+    }
+
+    @Override
+    public long getDroppedFrameCount() {
+        synchronized (mLock) {
+            return mDroppedFrames;
+        }
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private void setPreviewTextureLocked(SurfaceTexture texture) {
+        if (texture == mPreviewTexture) {
+            return;
+        }
+        if (mPreviewTextureSurface != null) {
+            mPreviewTextureSurface.release();
+            mPreviewTextureSurface = null;
+        }
+        mPreviewTexture = texture;
+    }
+
+    /**
+     * Sets the focus and metering regions of the repeating request to the focus region.  Must be
+     * called with mLock held.
+     */
+    private void setFocusRegionLocked() {
+        MeteringRectangle[] regions = toMeteringRegions(mFocusRegion, mRotation, mFrameSize, getCropRegionLocked());
+        if (getMaxRegions(mCharacteristics, CameraCharacteristics.CONTROL_MAX_REGIONS_AF) > 0) {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+        }
+        if (getMaxRegions(mCharacteristics, CameraCharacteristics.CONTROL_MAX_REGIONS_AE) > 0) {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+        }
+    }
+
+    /**
+     * Sets the crop region of the repeating request for the zoom, capping the zoom at the
+     * camera's maximum.  Must be called with mLock held.
+     */
+    private void setZoomLocked() {
+        Float maxZoom = mCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        mZoom = Math.min(mZoom, maxZoom != null ? Math.max(1.0f, maxZoom) : 1.0f);
+        Rect cropRegion = getCropRegionLocked();
+        if (cropRegion != null) {
+            mRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, cropRegion);
+        }
+    }
+
+    /**
+     * Returns the part of the active pixel array shown at the current zoom, centered, in active
+     * array coordinates, or null if the array size is unknown.  Must be called with mLock held.
+     */
+    private Rect getCropRegionLocked() {
+        Rect activeArray = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (activeArray == null) {
+            return null;
+        }
+        int width = Math.round(activeArray.width() / mZoom);
+        int height = Math.round(activeArray.height() / mZoom);
+        int left = (activeArray.width() - width) / 2;
+        int top = (activeArray.height() - height) / 2;
+        return new Rect(left, top, left + width, top + height);
+    }
+
+    /**
+     * Sends a single request carrying the given autofocus trigger.  Must be called with mLock held.
+     */
+    private boolean captureFocusTriggerLocked(int trigger) {
+        try {
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, trigger);
+            mCaptureSession.capture(mRequestBuilder.build(), null, mCameraHandler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            return false;
+        } finally {
+            // The repeating request must not fire the trigger again.
+            mRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+        }
+    }
+
+    private void cancelFocus() {
+        synchronized (mLock) {
+            if (mCaptureSession != null) {
+                captureFocusTriggerLocked(CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+            }
+        }
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // Every image is still held by the pipeline, so this frame is dropped.
+            synchronized (mLock) {
+                mDroppedFrames++;
+            }
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+
+        FrameCallback callback;
+        ByteBuffer data;
+        synchronized (mLock) {
+            callback = mCallback;
+            if (callback == null) {
+                image.close();
+                return;
+            }
+
+            Image.Plane luma = image.getPlanes()[0];
+            int width = mFrameSize.getWidth();
+            int height = mFrameSize.getHeight();
+            if (luma.getRowStride() == width && luma.getPixelStride() == 1) {
+                data = luma.getBuffer();
+                mFramesInFlight.put(data, image);
+            } else {
+                data = packLuma(luma, width, height);
+                image.close();
+                mFramesInFlight.put(data, null);
+            }
+        }
+        callback.onFrame(data, SystemClock.elapsedRealtime() - mStartTimeMillis);
+    }
+
+    /**
+     * Copies a padded Y plane into a tightly packed direct buffer.  Must be called with mLock held.
+     */
+    private ByteBuffer packLuma(Image.Plane luma, int width, int height) {
+        ByteBuffer packed = mFreePackedBuffers.poll();
+        if (packed == null || packed.capacity() < width * height) {
+            packed = ByteBuffer.allocateDirect(width * height);
+        }
+        packed.clear();
+
+        ByteBuffer source = luma.getBuffer();
+        int rowStride = luma.getRowStride();
+        int pixelStride = luma.getPixelStride();
+        if (pixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                source.limit(Math.min(source.capacity(), row * rowStride + width));
+                source.position(row * rowStride);
+                packed.put(source);
+            }
+        } else {
+            for (int row = 0; row < height; row++) {
+                int offset = row * rowStride;
+                for (int col = 0; col < width; col++) {
+                    packed.put(source.get(offset + col * pixelStride));
+                }
+            }
+        }
+        packed.flip();
+        return packed;
+    }
+
+    private CameraDevice openCamera(CameraManager manager, String cameraId)
+            throws CameraAccessException, InterruptedException, IOException {
+        final CameraDevice[] opened = new CameraDevice[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice camera) {
+                opened[0] = camera;
+                latch.countDown();
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+                camera.close();
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(CameraDevice camera, int error) {
+                camera.close();
+                latch.countDown();
+            }
+        }, mCameraHandler);
+
+        if (!latch.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || opened[0] == null) {
+            throw new IOException("Could not open camera " + cameraId);
+        }
+        return opened[0];
+    }
+
+    private CameraCaptureSession createCaptureSession(List<Surface> outputs)
+            throws CameraAccessException, InterruptedException, IOException {
+        final CameraCaptureSession[] configured = new CameraCaptureSession[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mCameraDevice.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession session) {
+                configured[0] = session;
+                latch.countDown();
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession session) {
+                latch.countDown();
+            }
+        }, mCameraHandler);
+
+        if (!latch.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || configured[0] == null) {
+            throw new IOException("Could not configure capture session.");
+        }
+        return configured[0];
+    }
+
+    /**
+     * Re-issues the repeating request after a parameter change.  Must be called with mLock held.
+     */
+    private boolean updateRepeatingRequest() {
+        try {
+            mCaptureSession.setRepeatingRequest(mRequestBuilder.build(), null, mCameraHandler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private static String findCameraId(CameraManager manager, int facing) throws CameraAccessException {
+        int lensFacing = facing == CameraSource.CAMERA_FACING_FRONT
+                ? CameraMetadata.LENS_FACING_FRONT : CameraMetadata.LENS_FACING_BACK;
+        for (String cameraId : manager.getCameraIdList()) {
+            Integer cameraFacing = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.LENS_FACING);
+            if (cameraFacing != null && cameraFacing == lensFacing) {
+                return cameraId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the YUV output size closest to the requested one, the same way
+     * {@link CameraSource} picks a Camera1 preview size.
+     */
+    private static Size selectSize(CameraCharacteristics characteristics, int desiredWidth, int desiredHeight)
+            throws IOException {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        android.util.Size[] sizes = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+        if (sizes == null || sizes.length == 0) {
+            throw new IOException("Could not find suitable preview size.");
+        }
+        android.util.Size selected = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (android.util.Size size : sizes) {
+            int diff = Math.abs(size.getWidth() - desiredWidth) + Math.abs(size.getHeight() - desiredHeight);
+            if (diff < minDiff) {
+                selected = size;
+                minDiff = diff;
+            }
+        }
+        return new Size(selected.getWidth(), selected.getHeight());
+    }
+
+    private static Range<Integer> selectFpsRange(CameraCharacteristics characteristics, float desiredFps) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        int desired = Math.round(desiredFps);
+        Range<Integer> selected = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            int diff = Math.abs(desired - range.getLower()) + Math.abs(desired - range.getUpper());
+            if (diff < minDiff) {
+                selected = range;
+                minDiff = diff;
+            }
+        }
+        return selected;
+    }
+
+    private static int getMaxRegions(CameraCharacteristics characteristics,
+                                     CameraCharacteristics.Key<Integer> key) {
+        Integer max = characteristics.get(key);
+        return max != null ? max : 0;
+    }
+
+    /**
+     * Maps a region in normalized upright coordinates onto the active pixel array, which metering
+     * regions are given in.  Frames show the center of the crop region cropped further to their
+     * aspect ratio.  The full frame, or a region that cannot be mapped, gives a zero weight
+     * rectangle, which leaves focus and metering to the camera.
+     */
+    private static MeteringRectangle[] toMeteringRegions(float[] region, int rotation, Size frameSize,
+                                                         Rect cropRegion) {
+        MeteringRectangle none = new MeteringRectangle(0, 0, 0, 0, MeteringRectangle.METERING_WEIGHT_DONT_CARE);
+        boolean fullFrame = region[0] <= 0.0f && region[1] <= 0.0f && region[2] >= 1.0f && region[3] >= 1.0f;
+        if (fullFrame || cropRegion == null || frameSize == null) {
+            return new MeteringRectangle[]{none};
+        }
+
+        float[] sensor = new float[4];
+        FrameCropper.toSensorRegion(region[0], region[1], region[2], region[3], rotation, sensor);
+        float cropWidth = cropRegion.width();
+        float cropHeight = cropRegion.height();
+        float frameAspect = (float) frameSize.getWidth() / frameSize.getHeight();
+        float visibleWidth = Math.min(cropWidth, cropHeight * frameAspect);
+        float visibleHeight = Math.min(cropHeight, cropWidth / frameAspect);
+        float offsetX = cropRegion.left + (cropWidth - visibleWidth) / 2;
+        float offsetY = cropRegion.top + (cropHeight - visibleHeight) / 2;
+
+        int left = Math.round(offsetX + clamp(sensor[0]) * visibleWidth);
+        int top = Math.round(offsetY + clamp(sensor[1]) * visibleHeight);
+        int right = Math.round(offsetX + clamp(sensor[2]) * visibleWidth);
+        int bottom = Math.round(offsetY + clamp(sensor[3]) * visibleHeight);
+        if (right <= left || bottom <= top) {
+            return new MeteringRectangle[]{none};
+        }
+        return new MeteringRectangle[]{new MeteringRectangle(left, top, right - left, bottom - top,
+                MeteringRectangle.METERING_WEIGHT_MAX)};
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0.0f, Math.min(1.0f, value));
+    }
+
+    private static boolean supportsAfMode(CameraCharacteristics characteristics, int mode) {
+        int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (modes != null) {
+            for (int available : modes) {
+                if (available == mode) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the frame rotation from the sensor orientation and the display rotation, as
+     * {@link CameraSource} does for Camera1.
+     */
+    private int computeRotation(CameraCharacteristics characteristics) {
+        WindowManager windowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = windowManager.getDefaultDisplay().getRotation() * 90;
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        int orientation = sensorOrientation != null ? sensorOrientation : 90;
+
+        int angle;
+        if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
+            angle = (orientation + degrees) % 360;
+        } else {
+            angle = (orientation - degrees + 360) % 360;
+        }
+        return angle / 90;
+    }
+}
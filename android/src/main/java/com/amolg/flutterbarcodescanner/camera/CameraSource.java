@@ -20,11 +20,17 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 import androidx.annotation.StringDef;
@@ -39,19 +45,19 @@ import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 
 
 @SuppressWarnings("deprecation")
 public class CameraSource {
+    private static final String TAG = "CameraSource";
+
     @SuppressLint("InlinedApi")
     public static final int CAMERA_FACING_BACK = CameraInfo.CAMERA_FACING_BACK;
     @SuppressLint("InlinedApi")
@@ -59,6 +65,13 @@ public class CameraSource {
     private static final int DUMMY_TEXTURE_NAME = 100;
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    // Smallest side of a downscaled frame worth detecting on; below it only the full frame is used.
+    private static final int MIN_DOWNSCALED_SIZE = 64;
+
+    // Camera1 focus and metering areas span [-1000, 1000] on both axes of the sensor.
+    private static final int AREA_HALF_SIZE = 1000;
+    private static final int AREA_WEIGHT = 1000;
+
     public static final String FLASH_MODE_OFF = "off";
     public static final String FLASH_MODE_ON = "on";
     public static final String FLASH_MODE_TORCH = "torch";
@@ -75,6 +88,7 @@ public class CameraSource {
     private float mRequestedFps = 30.0f;
     private int mRequestedPreviewWidth = 1024;
     private int mRequestedPreviewHeight = 768;
+    private boolean mUseCamera2 = false;
 
 
     private String mFocusMode = null;
@@ -90,15 +104,68 @@ public class CameraSource {
      * Dedicated thread and associated runnable for calling into the detector with frames, as the
      * frames become available from the camera.
      */
-    private Thread mProcessingThread;
+    private Thread[] mProcessingThreads;
     private FrameProcessingRunnable mFrameProcessor;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Parallel detection: the number of worker threads, the factory for the detectors of the
+     * additional workers and the sequencer that delivers their results in order.
+     */
+    private int mDetectionWorkerCount = 1;
+    private DetectorFactory<?> mDetectorFactory;
+    private DetectionSequencer<?> mSequencer;
+
+    // Throttles detection while nothing is in view; null to process every frame.
+    private FrameRateGovernor mGovernor;
+
+    // Skips frames too blurry to decode; null to detect on every frame.
+    private SharpnessGate mSharpnessGate;
+
+    // Asks for a focus on the region of interest while nothing decodes; null to leave focus to the
+    // focus mode.  Focus requests are run on the main thread, away from the frame callback.
+    private RefocusTrigger mRefocusTrigger;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRefocus = this::focusOnRegionOfInterest;
+
+    // Switches the torch from the brightness of the frames; null while the torch is left alone.
+    // Switches are applied on the main thread.  The callback is guarded by mCameraLock.
+    private volatile AutoTorch mAutoTorch;
+    private AutoTorchCallback mAutoTorchCallback;
+    private final Runnable mApplyAutoTorch = this::applyAutoTorch;
+
+    // Zooms in on codes that are too small; null to leave the zoom alone.  Guarded by
+    // mCameraLock.  Zoom changes are applied on the main thread.
+    private AutoZoom mAutoZoom;
+    private final Runnable mApplyAutoZoom = this::applyAutoZoom;
+    private final AutoZoom.Listener mAutoZoomListener = zoom -> mMainHandler.post(mApplyAutoZoom);
+
+    // The region of interest in upright, unmirrored coordinates, which focus and metering follow.
+    // Guarded by mCameraLock.
+    private final float[] mRegionOfInterest = {0.0f, 0.0f, 1.0f, 1.0f};
+
+    /**
+     * Downscaled first pass: the factor frames are shrunk by, 1 to detect at full resolution only,
+     * the scaler that maps its results back to full resolution and the processor they go to.
+     */
+    private int mDownscaleFactor = 1;
+    private ResultScaler<?> mResultScaler;
+    private Detector.Processor<?> mDownscaleProcessor;
+
+    // Frames the source had already dropped when processing started; see ScanMetrics.
+    private long mDroppedFrameBaseline = -1;
+
+    /**
+     * Where frames come from; the camera preview unless another source was supplied.
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<>();
+    private FrameSource mFrameSource;
+
+    /**
+     * Preview buffers, each a byte array received from the camera together with its associated
+     * byte buffer.  We use byte buffers internally because this is a more efficient way to call
+     * into native code later (avoids a potential copy).  Kept across stop/start cycles.
+     */
+    private PreviewBufferPool mBufferPool;
+    private int mPreviewBufferCount = 4;
 
 
     @StringDef({
@@ -201,15 +268,182 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets how many preview buffers are cycled between the camera and the detector, at least
+         * 3.  More buffers let the camera keep delivering while detection runs late, at the cost
+         * of memory.  Default: 4.
+         */
+        public Builder setPreviewBufferCount(int count) {
+            if (count < 3) {
+                throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+            }
+            mCameraSource.mPreviewBufferCount = count;
+            return this;
+        }
+
+        /**
+         * Runs detection on several worker threads, each with its own detector, instead of one.
+         * A new frame goes to whichever worker is idle; while all of them are busy only the latest
+         * frame is kept.  Results are delivered to {@code processor} in frame order, so trackers
+         * see the same sequence as with a single worker.
+         * <p/>
+         * The detector passed to the builder serves the first worker, {@code factory} creates the
+         * detectors of the others.  The processor should also be set on the builder's detector;
+         * it is released together with it.  Default: one worker, with results delivered through
+         * the builder's detector.
+         */
+        public <T> Builder setDetectionWorkers(int count, DetectorFactory<T> factory,
+                                               Detector.Processor<T> processor) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Invalid detection worker count: " + count);
+            }
+            if (count > 1 && (factory == null || processor == null)) {
+                throw new IllegalArgumentException("Parallel detection needs a detector factory and a processor.");
+            }
+            mCameraSource.mDetectionWorkerCount = count;
+            mCameraSource.mDetectorFactory = factory;
+            mCameraSource.mSequencer = count > 1 ? newSequencer(processor) : null;
+            return this;
+        }
+
+        /**
+         * Lets the given governor decide which frames are detected, so that detection backs off
+         * while nothing is in view.  The governor must also instrument the detector's processor.
+         * Default: none, every frame is processed.
+         */
+        public Builder setFrameRateGovernor(FrameRateGovernor governor) {
+            mCameraSource.mGovernor = governor;
+            return this;
+        }
+
+        /**
+         * Lets the given trigger focus the camera on the region of interest again while nothing
+         * decodes, for when continuous autofocus has settled on the background.  Default: none,
+         * focus is left to the focus mode.
+         */
+        public Builder setRefocusTrigger(RefocusTrigger trigger) {
+            mCameraSource.mRefocusTrigger = trigger;
+            return this;
+        }
+
+        /**
+         * Lets the given gate skip frames that are too blurry to decode, e.g. while the camera
+         * refocuses or the device moves, so that the detector is free for the next sharp frame.
+         * Sharpness is measured inside the region of interest.  Default: none, every frame is
+         * detected on.
+         */
+        public Builder setSharpnessGate(SharpnessGate gate) {
+            mCameraSource.mSharpnessGate = gate;
+            return this;
+        }
+
+        /**
+         * Runs the detector on a frame shrunk by {@code factor} first, and on the full frame only
+         * if that finds nothing.  Codes close to the lens decode fine at a fraction of the pixels,
+         * so this cuts the detector time per frame, while small or distant codes are still found by
+         * the second pass.  The pass that last found something is tried first, so a code that only
+         * decodes at full resolution does not pay for the downscaled pass on every frame.
+         * <p/>
+         * Worth it for 1D barcodes, less so for dense 2D codes.  {@code scaler} maps results of the
+         * downscaled pass back to full resolution coordinates; results are delivered to
+         * {@code processor}, as with {@link #setDetectionWorkers}.  Default: full resolution only.
+         *
+         * @param factor 2 or 4
+         */
+        public <T> Builder setDownscaledFirstPass(int factor, ResultScaler<T> scaler,
+                                                  Detector.Processor<T> processor) {
+            if (factor != 2 && factor != 4) {
+                throw new IllegalArgumentException("Invalid downscale factor: " + factor);
+            }
+            if (scaler == null || processor == null) {
+                throw new IllegalArgumentException("A downscaled pass needs a result scaler and a processor.");
+            }
+            mCameraSource.mDownscaleFactor = factor;
+            mCameraSource.mResultScaler = scaler;
+            mCameraSource.mDownscaleProcessor = processor;
+            return this;
+        }
+
+        /**
+         * Uses the Camera2 API ({@link Camera2FrameSource}) instead of Camera1 when the device
+         * supports it at better than legacy level.  Falls back to Camera1 otherwise.
+         * Default: false.
+         */
+        public Builder setUseCamera2(boolean useCamera2) {
+            mCameraSource.mUseCamera2 = useCamera2;
+            return this;
+        }
+
+        /**
+         * Feeds the detector from the given frame source instead of the camera, e.g. a
+         * {@link ReplayFrameSource}.  Camera controls such as flash and focus have no effect then.
+         */
+        public Builder setFrameSource(FrameSource frameSource) {
+            mCameraSource.mFrameSource = frameSource;
+            return this;
+        }
+
         /**
          * Creates an instance of the camera source.
          */
         public CameraSource build() {
-            mCameraSource.mFrameProcessor = mCameraSource.new FrameProcessingRunnable(mDetector);
-            return mCameraSource;
+            CameraSource source = mCameraSource;
+            if (source.mDownscaleFactor > 1 && source.mSequencer == null) {
+                // The passes run through detect(), so results are delivered like parallel ones.
+                source.mSequencer = newSequencer(source.mDownscaleProcessor);
+            }
+            source.mFrameProcessor = source.new FrameProcessingRunnable(mDetector);
+            for (int i = 1; i < source.mDetectionWorkerCount; ++i) {
+                source.mFrameProcessor.addWorker(source.mDetectorFactory.create());
+            }
+
+            // Every worker may hold a buffer, on top of the pending frame and the one the camera
+            // is filling.
+            source.mPreviewBufferCount = Math.max(source.mPreviewBufferCount, source.mDetectionWorkerCount + 2);
+
+            if (source.mFrameSource == null) {
+                if (source.mUseCamera2 && Camera2FrameSource.isSupported(source.mContext, source.mFacing)) {
+                    source.mFrameSource = new Camera2FrameSource(source.mContext, source.mFacing,
+                            source.mRequestedPreviewWidth, source.mRequestedPreviewHeight,
+                            source.mRequestedFps, source.mPreviewBufferCount);
+                } else {
+                    source.mBufferPool = new PreviewBufferPool(source.mPreviewBufferCount);
+                    source.mFrameSource = source.new CameraFrameSource();
+                }
+            }
+            return source;
         }
     }
 
+    private static <T> DetectionSequencer<Detector.Detections<T>> newSequencer(
+            Detector.Processor<T> processor) {
+        return new DetectionSequencer<>(processor::receiveDetections);
+    }
+
+    /**
+     * Runs a detector on a frame without going through its processor, collecting the result for
+     * the sequencer.
+     */
+    private static <T> Detector.Detections<T> detect(Detector<T> detector, Frame frame) {
+        SparseArray<T> items = detector.detect(frame);
+        return new Detector.Detections<>(items, frame.getMetadata(), detector.isOperational());
+    }
+
+    /**
+     * Creates the detectors of the additional workers used for parallel detection.
+     */
+    public interface DetectorFactory<T> {
+        Detector<T> create();
+    }
+
+    /**
+     * Maps a result detected on a downscaled frame back to full resolution, e.g. by multiplying
+     * its coordinates by the factor.  Called on a detection thread before the result is delivered.
+     */
+    public interface ResultScaler<T> {
+        void scale(T item, int factor);
+    }
+
     /**
      * Callback interface used to signal the moment of actual image capture.
      */
@@ -252,6 +486,16 @@ public class CameraSource {
         void onAutoFocus(boolean success);
     }
 
+    /**
+     * Callback interface used to notify when the auto torch switched the torch.
+     */
+    public interface AutoTorchCallback {
+        /**
+         * Called on the main thread after the torch was switched on or off.
+         */
+        void onTorchChanged(boolean on);
+    }
+
     /**
      * Callback interface used to notify on auto focus start and stop.
      * <p/>
@@ -276,7 +520,58 @@ public class CameraSource {
         synchronized (mCameraLock) {
             stop();
             mFrameProcessor.release();
+            if (mBufferPool != null) {
+                mBufferPool.release();
+            }
+        }
+    }
+
+    /**
+     * Restricts detection to a region of the preview.  The region is given in normalized
+     * coordinates ([0, 1]) of the upright preview as it is shown to the user, i.e. the same space
+     * the finder rectangle of {@link GraphicOverlay} is drawn in.  Frames are cropped to this
+     * region before being passed to the detector, and the camera focuses and meters on it where
+     * it supports focus and metering areas.
+     */
+    public void setRegionOfInterest(float left, float top, float right, float bottom) {
+        if (mFacing == CAMERA_FACING_FRONT) {
+            // The front preview is mirrored, so the region is flipped horizontally.
+            float mirroredLeft = 1.0f - right;
+            right = 1.0f - left;
+            left = mirroredLeft;
         }
+        updateRegionOfInterest(left, top, right, bottom);
+    }
+
+    /**
+     * Removes the region of interest, so that the detector receives full frames again and the
+     * camera focuses and meters on the whole scene.
+     */
+    public void clearRegionOfInterest() {
+        updateRegionOfInterest(0.0f, 0.0f, 1.0f, 1.0f);
+    }
+
+    /**
+     * Returns the position of the region of interest inside the upright preview, in preview
+     * pixels.  Detection coordinates are relative to this point while a region is set.
+     */
+    public Point getRegionOfInterestOffset() {
+        return mFrameProcessor.getRegionOfInterestOffset();
+    }
+
+    /**
+     * Opens and configures the camera without starting the preview, so that a later start only
+     * has to attach the preview.  Has no effect when frames come from another source than the
+     * Camera1 preview.  The camera is closed again by {@link #stop()}.
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public CameraSource open() {
+        synchronized (mCameraLock) {
+            if (mCamera == null && mFrameSource instanceof CameraFrameSource) {
+                mCamera = createCamera();
+            }
+        }
+        return this;
     }
 
     /**
@@ -288,26 +583,31 @@ public class CameraSource {
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start() throws IOException {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mProcessingThreads != null) {
                 return this;
             }
+            long startNanos = System.nanoTime();
 
-            mCamera = createCamera();
+            if (mFrameSource instanceof CameraFrameSource) {
+                if (mCamera == null) {
+                    mCamera = createCamera();
+                }
 
-            // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
-            // old version of Android. fall back to use SurfaceView.
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-                mCamera.setPreviewTexture(mDummySurfaceTexture);
-            } else {
-                mDummySurfaceView = new SurfaceView(mContext);
-                mCamera.setPreviewDisplay(mDummySurfaceView.getHolder());
+                // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
+                // old version of Android. fall back to use SurfaceView.
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+                    mCamera.setPreviewTexture(mDummySurfaceTexture);
+                } else {
+                    mDummySurfaceView = new SurfaceView(mContext);
+                    mCamera.setPreviewDisplay(mDummySurfaceView.getHolder());
+                }
+                mCamera.startPreview();
+            } else if (mFrameSource instanceof Camera2FrameSource) {
+                ((Camera2FrameSource) mFrameSource).setPreviewDisplay(null);
             }
-            mCamera.startPreview();
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            startFrameProcessing(startNanos);
         }
         return this;
     }
@@ -322,17 +622,55 @@ public class CameraSource {
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mProcessingThreads != null) {
                 return this;
             }
+            long startNanos = System.nanoTime();
 
-            mCamera = createCamera();
-            mCamera.setPreviewDisplay(surfaceHolder);
-            mCamera.startPreview();
+            if (mFrameSource instanceof CameraFrameSource) {
+                if (mCamera == null) {
+                    mCamera = createCamera();
+                }
+                mCamera.setPreviewDisplay(surfaceHolder);
+                mCamera.startPreview();
+            } else if (mFrameSource instanceof Camera2FrameSource) {
+                ((Camera2FrameSource) mFrameSource).setPreviewDisplay(surfaceHolder);
+            }
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            startFrameProcessing(startNanos);
+        }
+        return this;
+    }
+
+    /**
+     * Opens the camera and starts sending preview frames to the underlying detector.  The preview
+     * is rendered into the supplied texture, e.g. one registered with Flutter's texture registry,
+     * so it can be shown without a window of its own.  The texture's buffer size is set to the
+     * preview size.
+     *
+     * @param surfaceTexture the texture to render the preview frames into
+     * @throws IOException if the supplied texture could not be used for the preview
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public CameraSource start(SurfaceTexture surfaceTexture) throws IOException {
+        synchronized (mCameraLock) {
+            if (mProcessingThreads != null) {
+                return this;
+            }
+            long startNanos = System.nanoTime();
+
+            if (mFrameSource instanceof CameraFrameSource) {
+                if (mCamera == null) {
+                    mCamera = createCamera();
+                }
+                surfaceTexture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+                mCamera.setPreviewTexture(surfaceTexture);
+                mCamera.startPreview();
+            } else if (mFrameSource instanceof Camera2FrameSource) {
+                ((Camera2FrameSource) mFrameSource).setPreviewTexture(surfaceTexture);
+            }
+
+            startFrameProcessing(startNanos);
         }
         return this;
     }
@@ -348,49 +686,54 @@ public class CameraSource {
      */
     public void stop() {
         synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
-                }
-                mProcessingThread = null;
-            }
-
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
+            stopFrameProcessing(false);
 
             if (mCamera != null) {
-                mCamera.stopPreview();
-                mCamera.setPreviewCallbackWithBuffer(null);
-                try {
-                    // We want to be compatible back to Gingerbread, but SurfaceTexture
-                    // wasn't introduced until Honeycomb.  Since the interface cannot use a SurfaceTexture, if the
-                    // developer wants to display a preview we must use a SurfaceHolder.  If the developer doesn't
-                    // want to display a preview we use a SurfaceTexture if we are running at least Honeycomb.
-
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                        mCamera.setPreviewTexture(null);
-
-                    } else {
-                        mCamera.setPreviewDisplay(null);
-                    }
-                } catch (Exception e) {
-                }
+                stopPreview();
                 mCamera.release();
                 mCamera = null;
             }
         }
     }
 
+    /**
+     * Stops sending frames to the detector and stops the preview, but keeps the camera open, so
+     * that the next {@link #start(SurfaceHolder)} only has to reattach the preview instead of
+     * opening the camera again.  The preview surface is detached, so it may be destroyed.
+     * <p/>
+     * Call {@link #stop()} or {@link #release()} to close the camera.
+     */
+    public void suspend() {
+        synchronized (mCameraLock) {
+            stopFrameProcessing(true);
+
+            if (mCamera != null) {
+                stopPreview();
+            }
+        }
+    }
+
     /**
      * Returns the preview size that is currently in use by the underlying camera.
      */
     public Size getPreviewSize() {
-        return mPreviewSize;
+        return mFrameSource.getFrameSize();
+    }
+
+    /**
+     * Returns the rotation needed to make preview frames upright, one of the
+     * {@code Frame.ROTATION_*} values.  Valid once the camera has been started.
+     */
+    public int getRotation() {
+        return mFrameSource.getRotation();
+    }
+
+    /**
+     * Returns how many frames could not be delivered because every buffer was still held by the
+     * detector.
+     */
+    public long getDroppedFrameCount() {
+        return mFrameSource.getDroppedFrameCount();
     }
 
     /**
@@ -401,6 +744,60 @@ public class CameraSource {
         return mFacing;
     }
 
+    /**
+     * Zooms to the given ratio, or to the closest ratio below it that the camera supports.
+     *
+     * @param zoom the zoom ratio, 1 for none
+     * @return the zoom ratio in use
+     */
+    public float setZoom(float zoom) {
+        synchronized (mCameraLock) {
+            if (mFrameSource instanceof Camera2FrameSource) {
+                return ((Camera2FrameSource) mFrameSource).setZoom(zoom);
+            }
+            if (mCamera == null) {
+                return 1.0f;
+            }
+            Camera.Parameters parameters = mCamera.getParameters();
+            List<Integer> ratios = parameters.isZoomSupported() ? parameters.getZoomRatios() : null;
+            if (ratios == null || ratios.isEmpty()) {
+                return 1.0f;
+            }
+            // Ratios are given in hundredths, in ascending order
+            int requested = Math.round(zoom * 100);
+            int index = 0;
+            while (index + 1 < ratios.size() && ratios.get(index + 1) <= requested) {
+                index++;
+            }
+            if (parameters.getZoom() != index) {
+                parameters.setZoom(index);
+                mCamera.setParameters(parameters);
+            }
+            return ratios.get(index) / 100.0f;
+        }
+    }
+
+    /**
+     * Lets the given auto zoom zoom in on codes that cover too little of the region of interest,
+     * or stops auto zoom for null.  The zoom goes back to none when auto zoom is stopped or the
+     * camera is started.  The auto zoom must be wrapped around the detector's processor, see
+     * {@link AutoZoom#instrument(Detector.Processor, AutoZoom.BoundsReader)}.
+     */
+    public void setAutoZoom(@Nullable AutoZoom autoZoom) {
+        synchronized (mCameraLock) {
+            mMainHandler.removeCallbacks(mApplyAutoZoom);
+            if (mAutoZoom != null && mAutoZoom != autoZoom) {
+                mAutoZoom.setListener(null);
+                setZoom(1.0f);
+            }
+            if (autoZoom != null) {
+                autoZoom.reset();
+                autoZoom.setListener(mAutoZoomListener);
+            }
+            mAutoZoom = autoZoom;
+        }
+    }
+
     public int doZoom(float scale) {
         synchronized (mCameraLock) {
             if (mCamera == null) {
@@ -523,6 +920,15 @@ public class CameraSource {
      */
     public boolean setFlashMode(@FlashMode String mode) {
         synchronized (mCameraLock) {
+            if (mFrameSource instanceof Camera2FrameSource && mode != null) {
+                // Camera2 only drives the flash as a torch.
+                boolean torch = mode.equals(FLASH_MODE_TORCH);
+                if (((Camera2FrameSource) mFrameSource).setTorch(torch)) {
+                    mFlashMode = torch ? FLASH_MODE_TORCH : FLASH_MODE_OFF;
+                    return true;
+                }
+                return false;
+            }
             if (mCamera != null && mode != null) {
                 Camera.Parameters parameters = mCamera.getParameters();
                 if (parameters.getSupportedFlashModes().contains(mode)) {
@@ -537,6 +943,28 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Lets the given auto torch switch the torch from the brightness of the region of interest, or
+     * stops auto torch for null, e.g. when the user takes over the flash button.  Stopping
+     * switches off a torch the auto torch had switched on.
+     *
+     * @param cb the callback to run after each switch, or null
+     */
+    public void setAutoTorch(@Nullable AutoTorch autoTorch, @Nullable AutoTorchCallback cb) {
+        synchronized (mCameraLock) {
+            mMainHandler.removeCallbacks(mApplyAutoTorch);
+            AutoTorch previous = mAutoTorch;
+            if (previous != null && previous != autoTorch && previous.isTorchOn()) {
+                setFlashMode(FLASH_MODE_OFF);
+            }
+            if (autoTorch != null) {
+                autoTorch.reset(FLASH_MODE_TORCH.equals(mFlashMode), SystemClock.elapsedRealtime());
+            }
+            mAutoTorch = autoTorch;
+            mAutoTorchCallback = cb;
+        }
+    }
+
     /**
      * Starts camera auto-focus and registers a callback function to run when
      * the camera is focused.  This method is only valid when preview is active
@@ -584,6 +1012,26 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Runs one focus on the region of interest, e.g. after continuous autofocus has settled on the
+     * background, then hands focus back to the focus mode.  Has no effect if the camera cannot
+     * focus or is not running.
+     */
+    public void focusOnRegionOfInterest() {
+        synchronized (mCameraLock) {
+            if (mFrameSource instanceof Camera2FrameSource) {
+                ((Camera2FrameSource) mFrameSource).triggerFocus();
+            } else if (mCamera != null && isAutoFocusMode(mFocusMode)) {
+                try {
+                    mCamera.autoFocus(new RefocusDoneCallback());
+                } catch (RuntimeException e) {
+                    // The preview stopped, or the driver is busy focusing already.
+                    Log.w(TAG, "Could not focus on the region of interest.", e);
+                }
+            }
+        }
+    }
+
     /**
      * Sets camera auto-focus move callback.
      *
@@ -620,6 +1068,103 @@ public class CameraSource {
     private CameraSource() {
     }
 
+    /**
+     * Starts the processing threads and connects them to the frame source.  Must be called with
+     * mCameraLock held.
+     *
+     * @param startNanos when the start was requested, for {@link ScanMetrics}
+     */
+    private void startFrameProcessing(long startNanos) throws IOException {
+        mFrameProcessor.setActive(true);
+        mFrameProcessor.setStartTime(startNanos);
+        if (mGovernor != null) {
+            mGovernor.reset(SystemClock.elapsedRealtime());
+        }
+        if (mSharpnessGate != null) {
+            mSharpnessGate.reset();
+        }
+        if (mRefocusTrigger != null) {
+            mRefocusTrigger.reset(SystemClock.elapsedRealtime());
+        }
+        if (mAutoTorch != null) {
+            mAutoTorch.reset(FLASH_MODE_TORCH.equals(mFlashMode), SystemClock.elapsedRealtime());
+        }
+        if (mAutoZoom != null) {
+            mAutoZoom.reset();
+            setZoom(1.0f);
+        }
+        mProcessingThreads = new Thread[mFrameProcessor.getWorkerCount()];
+        for (int i = 0; i < mProcessingThreads.length; ++i) {
+            mProcessingThreads[i] = new Thread(mFrameProcessor.getWorker(i), "FrameProcessor-" + i);
+            mProcessingThreads[i].start();
+        }
+        mFrameSource.start(mFrameProcessor);
+        mDroppedFrameBaseline = mFrameSource.getDroppedFrameCount();
+        ScanMetrics.get().record(ScanMetrics.Stage.CAMERA_OPEN, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Stops the processing threads and disconnects them from the frame source.  Must be called
+     * with mCameraLock held.
+     *
+     * @param keepCameraOpen whether a Camera2 source keeps its device open
+     */
+    private void stopFrameProcessing(boolean keepCameraOpen) {
+        mFrameProcessor.setActive(false);
+        mMainHandler.removeCallbacks(mRefocus);
+        mMainHandler.removeCallbacks(mApplyAutoTorch);
+        mMainHandler.removeCallbacks(mApplyAutoZoom);
+        if (mProcessingThreads != null) {
+            for (Thread thread : mProcessingThreads) {
+                try {
+                    // Wait for the thread to complete to ensure that we can't have multiple threads
+                    // executing at the same time (i.e., which would happen if we called start too
+                    // quickly after stop).
+                    thread.join();
+                } catch (InterruptedException e) {
+                }
+            }
+            mProcessingThreads = null;
+        }
+
+        if (mDroppedFrameBaseline >= 0) {
+            ScanMetrics.get().add(ScanMetrics.Counter.FRAMES_DROPPED,
+                    Math.max(0, mFrameSource.getDroppedFrameCount() - mDroppedFrameBaseline));
+            mDroppedFrameBaseline = -1;
+        }
+        if (keepCameraOpen && mFrameSource instanceof Camera2FrameSource) {
+            ((Camera2FrameSource) mFrameSource).suspend();
+        } else {
+            mFrameSource.stop();
+        }
+        mFrameProcessor.discardPendingFrame();
+        if (mSequencer != null) {
+            mSequencer.reset();
+        }
+    }
+
+    /**
+     * Stops the Camera1 preview and detaches it from its surface.  Must be called with
+     * mCameraLock held.
+     */
+    private void stopPreview() {
+        mCamera.stopPreview();
+        try {
+            // We want to be compatible back to Gingerbread, but SurfaceTexture
+            // wasn't introduced until Honeycomb.  Since the interface cannot use a SurfaceTexture, if the
+            // developer wants to display a preview we must use a SurfaceHolder.  If the developer doesn't
+            // want to display a preview we use a SurfaceTexture if we are running at least Honeycomb.
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                mCamera.setPreviewTexture(null);
+
+            } else {
+                mCamera.setPreviewDisplay(null);
+            }
+        } catch (Exception e) {
+        }
+    }
+
     /**
      * Wraps the camera1 shutter callback so that the deprecated API isn't exposed.
      */
@@ -683,6 +1228,22 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Ends a focus on the region of interest.  {@code autoFocus} locks continuous focus modes until
+     * cancelled, so they are resumed here; the focus areas keep them on the region of interest.
+     */
+    private class RefocusDoneCallback implements Camera.AutoFocusCallback {
+        @Override
+        public void onAutoFocus(boolean success, Camera camera) {
+            synchronized (mCameraLock) {
+                if (camera == mCamera && (Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(mFocusMode)
+                        || Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO.equals(mFocusMode))) {
+                    camera.cancelAutoFocus();
+                }
+            }
+        }
+    }
+
     /**
      * Opens the camera and applies the user settings.
      *
@@ -745,21 +1306,112 @@ public class CameraSource {
         mFlashMode = parameters.getFlashMode();
 
         camera.setParameters(parameters);
-
-        // Four frame buffers are needed for working with the camera:
-        //
-        //   one for the frame that is currently being executed upon in doing detection
-        //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
-        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        applyFocusAreas(camera);
 
         return camera;
     }
 
+    /**
+     * Switches the torch the way the auto torch decided.  Runs on the main thread.
+     */
+    private void applyAutoTorch() {
+        AutoTorchCallback callback;
+        boolean on;
+        synchronized (mCameraLock) {
+            AutoTorch autoTorch = mAutoTorch;
+            if (autoTorch == null || mProcessingThreads == null) {
+                return;
+            }
+            on = autoTorch.isTorchOn();
+            if (!setFlashMode(on ? FLASH_MODE_TORCH : FLASH_MODE_OFF)) {
+                return;
+            }
+            callback = mAutoTorchCallback;
+        }
+        if (callback != null) {
+            callback.onTorchChanged(on);
+        }
+    }
+
+    /**
+     * Zooms to the ratio the auto zoom decided.  Runs on the main thread.
+     */
+    private void applyAutoZoom() {
+        synchronized (mCameraLock) {
+            if (mAutoZoom != null && mProcessingThreads != null) {
+                setZoom(mAutoZoom.getZoom());
+            }
+        }
+    }
+
+    /**
+     * Stores the region of interest, passes it on to the frame processor and points focus and
+     * metering at it.
+     */
+    private void updateRegionOfInterest(float left, float top, float right, float bottom) {
+        mFrameProcessor.setRegionOfInterest(left, top, right, bottom);
+        synchronized (mCameraLock) {
+            mRegionOfInterest[0] = left;
+            mRegionOfInterest[1] = top;
+            mRegionOfInterest[2] = right;
+            mRegionOfInterest[3] = bottom;
+            if (mFrameSource instanceof Camera2FrameSource) {
+                ((Camera2FrameSource) mFrameSource).setFocusRegion(left, top, right, bottom);
+            } else if (mCamera != null) {
+                applyFocusAreas(mCamera);
+            }
+        }
+    }
+
+    /**
+     * Sets the Camera1 focus and metering areas to the region of interest, or back to the driver's
+     * default for the full frame.  Must be called with mCameraLock held.
+     */
+    private void applyFocusAreas(Camera camera) {
+        List<Camera.Area> areas = null;
+        float[] region = new float[4];
+        FrameCropper.toSensorRegion(mRegionOfInterest[0], mRegionOfInterest[1],
+                mRegionOfInterest[2], mRegionOfInterest[3], mRotation, region);
+        Rect rect = new Rect(toAreaCoordinate(region[0]), toAreaCoordinate(region[1]),
+                toAreaCoordinate(region[2]), toAreaCoordinate(region[3]));
+        boolean fullFrame = rect.left <= -AREA_HALF_SIZE && rect.top <= -AREA_HALF_SIZE
+                && rect.right >= AREA_HALF_SIZE && rect.bottom >= AREA_HALF_SIZE;
+        if (!fullFrame && rect.left < rect.right && rect.top < rect.bottom) {
+            areas = Collections.singletonList(new Camera.Area(rect, AREA_WEIGHT));
+        }
+
+        try {
+            Camera.Parameters parameters = camera.getParameters();
+            boolean changed = false;
+            if (parameters.getMaxNumFocusAreas() > 0) {
+                parameters.setFocusAreas(areas);
+                changed = true;
+            }
+            if (parameters.getMaxNumMeteringAreas() > 0) {
+                parameters.setMeteringAreas(areas);
+                changed = true;
+            }
+            if (changed) {
+                camera.setParameters(parameters);
+            }
+        } catch (RuntimeException e) {
+            // Some drivers reject areas they claim to support; focus then covers the whole scene.
+            Log.w(TAG, "Could not set focus and metering areas.", e);
+        }
+    }
+
+    private static int toAreaCoordinate(float value) {
+        value = Math.max(0.0f, Math.min(1.0f, value));
+        return Math.round((2.0f * value - 1.0f) * AREA_HALF_SIZE);
+    }
+
+    private static boolean isAutoFocusMode(String mode) {
+        return Camera.Parameters.FOCUS_MODE_AUTO.equals(mode)
+                || Camera.Parameters.FOCUS_MODE_MACRO.equals(mode)
+                || Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(mode)
+                || Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO.equals(mode);
+    }
+
     /**
      * Gets the id for the camera specified by the direction it is facing.  Returns -1 if no such
      * camera was found.
@@ -791,25 +1443,28 @@ public class CameraSource {
      * @return the selected preview and picture size pair
      */
     private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
-
-        // The method for selecting the best size is to minimize the sum of the differences between
-        // the desired values and the actual values for width and height.  This is certainly not the
-        // only way to select the best size, but it provides a decent tradeoff between using the
-        // closest aspect ratio vs. using the closest pixel area.
-        SizePair selectedPair = null;
-        int minDiff = Integer.MAX_VALUE;
-        for (SizePair sizePair : validPreviewSizes) {
-            Size size = sizePair.previewSize();
-            int diff = Math.abs(size.getWidth() - desiredWidth) +
-                    Math.abs(size.getHeight() - desiredHeight);
-            if (diff < minDiff) {
-                selectedPair = sizePair;
-                minDiff = diff;
-            }
+        Camera.Parameters parameters = camera.getParameters();
+        List<Camera.Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
+        List<Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+        int[] selected = PreviewSizeSelector.selectSizePair(toSizeArray(supportedPreviewSizes),
+                toSizeArray(supportedPictureSizes), desiredWidth, desiredHeight, ASPECT_RATIO_TOLERANCE);
+        if (selected == null) {
+            return null;
         }
+        return new SizePair(supportedPreviewSizes.get(selected[0]),
+                selected[1] >= 0 ? supportedPictureSizes.get(selected[1]) : null);
+    }
 
-        return selectedPair;
+    /**
+     * Flattens camera sizes to width, height pairs for {@link PreviewSizeSelector}.
+     */
+    private static int[] toSizeArray(List<Camera.Size> sizes) {
+        int[] array = new int[sizes.size() * 2];
+        for (int i = 0; i < sizes.size(); ++i) {
+            array[2 * i] = sizes.get(i).width;
+            array[2 * i + 1] = sizes.get(i).height;
+        }
+        return array;
     }
 
     /**
@@ -840,34 +1495,6 @@ public class CameraSource {
         }
     }
 
-    private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        List<Camera.Size> supportedPreviewSizes =
-                parameters.getSupportedPreviewSizes();
-        List<Camera.Size> supportedPictureSizes =
-                parameters.getSupportedPictureSizes();
-        List<SizePair> validPreviewSizes = new ArrayList<>();
-        for (android.hardware.Camera.Size previewSize : supportedPreviewSizes) {
-            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
-
-            for (android.hardware.Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
-                if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
-                    validPreviewSizes.add(new SizePair(previewSize, pictureSize));
-                    break;
-                }
-            }
-        }
-
-        if (validPreviewSizes.size() == 0) {
-            for (android.hardware.Camera.Size previewSize : supportedPreviewSizes) {
-                validPreviewSizes.add(new SizePair(previewSize, null));
-            }
-        }
-
-        return validPreviewSizes;
-    }
-
     private int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
 
@@ -927,32 +1554,88 @@ public class CameraSource {
         parameters.setRotation(angle);
     }
 
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private static int getPreviewBufferSize(Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
         long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+        return (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    }
 
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+    /**
+     * Frame source backed by the camera preview.  The camera itself is opened and configured by
+     * the camera source; this class manages the preview buffers and callback.
+     */
+    private class CameraFrameSource implements FrameSource {
+        private final long mStartTimeMillis = SystemClock.elapsedRealtime();
+        private FrameCallback mCallback;
+
+        @Override
+        public void start(FrameCallback callback) {
+            mCallback = callback;
+
+            // At least three frame buffers are needed for working with the camera:
+            //
+            //   one for the frame that is currently being executed upon in doing detection
+            //   one for the next pending frame to process immediately upon completing detection
+            //   the rest for the frames that the camera uses to populate future preview images
+            //
+            // The buffers are only reallocated when the preview size changes.
+            mBufferPool.allocate(getPreviewBufferSize(mPreviewSize));
+            mCamera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+            long now = SystemClock.elapsedRealtime();
+            for (int i = 0; i < mBufferPool.getDepth(); ++i) {
+                mCamera.addCallbackBuffer(mBufferPool.getArray(i));
+                mBufferPool.markQueued(now);
+            }
         }
 
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
-    }
+        @Override
+        public void stop() {
+            if (mCamera != null) {
+                mCamera.setPreviewCallbackWithBuffer(null);
+            }
+        }
 
-    private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
-        public void onPreviewFrame(byte[] data, Camera camera) {
-            mFrameProcessor.setNextFrame(data, camera);
+        public Size getFrameSize() {
+            return mPreviewSize;
         }
-    }
 
-    private class FrameProcessingRunnable implements Runnable {
-        private Detector<?> mDetector;
-        private long mStartTimeMillis = SystemClock.elapsedRealtime();
+        @Override
+        public int getRotation() {
+            return mRotation;
+        }
+
+        @Override
+        public void releaseFrame(ByteBuffer data) {
+            mCamera.addCallbackBuffer(data.array());
+            mBufferPool.markQueued(SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public long getDroppedFrameCount() {
+            return mBufferPool.getDroppedFrameCount();
+        }
 
+        private class CameraPreviewCallback implements Camera.PreviewCallback {
+            @Override
+            public void onPreviewFrame(byte[] data, Camera camera) {
+                long now = SystemClock.elapsedRealtime();
+                int slot = mBufferPool.indexOf(data);
+                if (slot < 0) {
+                    return;
+                }
+                mBufferPool.markDelivered(now);
+                mCallback.onFrame(mBufferPool.getBuffer(slot), now - mStartTimeMillis);
+            }
+        }
+    }
+
+    /**
+     * Receives frames from the frame source and hands the most recent one to an idle detection
+     * worker.  Frames arriving while every worker is busy replace the pending frame, whose buffer
+     * goes straight back to the source.
+     */
+    private class FrameProcessingRunnable implements FrameSource.FrameCallback {
         // This lock guards all of the member variables below.
         private final Object mLock = new Object();
         private boolean mActive = true;
@@ -962,16 +1645,65 @@ public class CameraSource {
         private int mPendingFrameId = 0;
         private ByteBuffer mPendingFrameData;
 
+        // The region of interest.  Each worker crops with its own cropper and picks up changes
+        // through the generation counter.
+        private final FrameCropper mFrameCropper = new FrameCropper();
+        private final float[] mRegion = {0.0f, 0.0f, 1.0f, 1.0f};
+        private int mRegionGeneration;
+
+        // When the current start was requested, until the first frame arrives.
+        private long mStartNanos = -1;
+
+        // The scale of the pass that last found something, tried first on the next frame.
+        private volatile int mFirstPassScale = mDownscaleFactor;
+
+        private final List<DetectionWorker> mWorkers = new ArrayList<>();
+
         FrameProcessingRunnable(Detector<?> detector) {
-            mDetector = detector;
+            addWorker(detector);
+        }
+
+        void addWorker(Detector<?> detector) {
+            mWorkers.add(new DetectionWorker(detector));
+        }
+
+        int getWorkerCount() {
+            return mWorkers.size();
+        }
+
+        Runnable getWorker(int index) {
+            return mWorkers.get(index);
         }
 
         @SuppressLint("Assert")
         void release() {
-            assert (mProcessingThread == null || mProcessingThread.getState() == State.TERMINATED);
-            if (mDetector != null) {
-                mDetector.release();
-                mDetector = null;
+            assert (mProcessingThreads == null);
+            for (DetectionWorker worker : mWorkers) {
+                if (worker.mDetector != null) {
+                    worker.mDetector.release();
+                    worker.mDetector = null;
+                }
+            }
+        }
+
+        void setRegionOfInterest(float left, float top, float right, float bottom) {
+            synchronized (mLock) {
+                mFrameCropper.setRegion(left, top, right, bottom);
+                mRegion[0] = left;
+                mRegion[1] = top;
+                mRegion[2] = right;
+                mRegion[3] = bottom;
+                mRegionGeneration++;
+            }
+        }
+
+        Point getRegionOfInterestOffset() {
+            synchronized (mLock) {
+                Size size = mFrameSource.getFrameSize();
+                if (size != null) {
+                    mFrameCropper.setFrameGeometry(size.getWidth(), size.getHeight(), mFrameSource.getRotation());
+                }
+                return new Point(mFrameCropper.getUprightOffsetX(), mFrameCropper.getUprightOffsetY());
             }
         }
 
@@ -982,29 +1714,71 @@ public class CameraSource {
             }
         }
 
-        void setNextFrame(byte[] data, Camera camera) {
+        void setStartTime(long startNanos) {
             synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
-                }
+                mStartNanos = startNanos;
+            }
+        }
 
-                if (!mBytesToByteBuffer.containsKey(data)) {
+        /**
+         * Drops the pending frame without handing it back, once its source has been stopped.
+         */
+        void discardPendingFrame() {
+            synchronized (mLock) {
+                mPendingFrameData = null;
+            }
+        }
+
+        @Override
+        public void onFrame(ByteBuffer data, long timestampMillis) {
+            ScanMetrics metrics = ScanMetrics.get();
+            synchronized (mLock) {
+                if (!mActive) {
+                    // Delivered after processing stopped.  Queued, it would outlive its source
+                    // and reach the detector after the next start.
+                    mFrameSource.releaseFrame(data);
+                    return;
+                }
+                metrics.increment(ScanMetrics.Counter.FRAMES_DELIVERED);
+                if (mStartNanos >= 0) {
+                    metrics.record(ScanMetrics.Stage.FIRST_FRAME, System.nanoTime() - mStartNanos);
+                    mStartNanos = -1;
+                }
+                if (mRefocusTrigger != null && mRefocusTrigger.shouldRefocus(SystemClock.elapsedRealtime())) {
+                    mMainHandler.post(mRefocus);
+                }
+                if (mGovernor != null && !mGovernor.shouldProcess(SystemClock.elapsedRealtime())) {
+                    mFrameSource.releaseFrame(data);
+                    metrics.increment(ScanMetrics.Counter.FRAMES_THROTTLED);
                     return;
                 }
+                if (mPendingFrameData != null) {
+                    mFrameSource.releaseFrame(mPendingFrameData);
+                    mPendingFrameData = null;
+                    metrics.increment(ScanMetrics.Counter.FRAMES_SKIPPED);
+                }
 
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+                mPendingTimeMillis = timestampMillis;
                 mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+                mPendingFrameData = data;
 
-                mLock.notifyAll();
+                // One idle worker is enough to take the frame.
+                mLock.notify();
             }
         }
 
-        @Override
-        public void run() {
+        /**
+         * Detection loop of one worker thread.
+         */
+        private void process(DetectionWorker worker) {
             Frame outputFrame;
             ByteBuffer data;
+            Size frameSize;
+            int rotation;
+            int frameId;
+            long timeMillis;
+            DetectionSequencer.Ticket<?> ticket;
+            ScanMetrics metrics = ScanMetrics.get();
 
             while (true) {
                 synchronized (mLock) {
@@ -1020,58 +1794,172 @@ public class CameraSource {
                         return;
                     }
 
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                    mPreviewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(mRotation)
-                            .build();
-
                     data = mPendingFrameData;
                     mPendingFrameData = null;
-                }
+                    frameId = mPendingFrameId;
+                    timeMillis = mPendingTimeMillis;
+                    frameSize = mFrameSource.getFrameSize();
+                    rotation = mFrameSource.getRotation();
+
+                    if (worker.mRegionGeneration != mRegionGeneration) {
+                        worker.mFrameCropper.setRegion(mRegion[0], mRegion[1], mRegion[2], mRegion[3]);
+                        worker.mRegionGeneration = mRegionGeneration;
+                    }
 
+                    // Taken under the lock, so that tickets follow the frame order.
+                    ticket = mSequencer != null ? mSequencer.dispatch() : null;
+                }
 
+                Detector.Detections<?> detections = null;
                 try {
-                    mDetector.receiveFrame(outputFrame);
+                    FrameCropper cropper = worker.mFrameCropper;
+                    cropper.setFrameGeometry(frameSize.getWidth(), frameSize.getHeight(), rotation);
+                    ByteBuffer pixels;
+                    int width;
+                    int height;
+                    if (cropper.isFullFrame()) {
+                        pixels = data;
+                        width = frameSize.getWidth();
+                        height = frameSize.getHeight();
+                        outputFrame = new Frame.Builder()
+                                .setImageData(data, frameSize.getWidth(),
+                                        frameSize.getHeight(), ImageFormat.NV21)
+                                .setId(frameId)
+                                .setTimestampMillis(timeMillis)
+                                .setRotation(rotation)
+                                .build();
+                    } else {
+                        // The cropped copy is all the detector needs, so the camera can have its
+                        // buffer back right away.
+                        byte[] cropped = cropper.crop(data);
+                        if (worker.mCroppedFrameData == null || worker.mCroppedFrameData.array() != cropped) {
+                            worker.mCroppedFrameData = ByteBuffer.wrap(cropped);
+                        }
+                        pixels = worker.mCroppedFrameData;
+                        width = cropper.getCropWidth();
+                        height = cropper.getCropHeight();
+                        outputFrame = new Frame.Builder()
+                                .setImageData(worker.mCroppedFrameData, cropper.getCropWidth(),
+                                        cropper.getCropHeight(), ImageFormat.NV21)
+                                .setId(frameId)
+                                .setTimestampMillis(timeMillis)
+                                .setRotation(rotation)
+                                .build();
+                        mFrameSource.releaseFrame(data);
+                        data = null;
+                    }
+
+                    AutoTorch autoTorch = mAutoTorch;
+                    if (autoTorch != null && autoTorch.update(pixels, width, height, SystemClock.elapsedRealtime())) {
+                        mMainHandler.post(mApplyAutoTorch);
+                    }
+
+                    if (mSharpnessGate != null && !mSharpnessGate.isSharpEnough(pixels, width, height)) {
+                        // Too blurry to decode; the finally block hands the frame back.
+                        metrics.increment(ScanMetrics.Counter.FRAMES_BLURRY);
+                        continue;
+                    }
+
+                    long detectStartNanos = System.nanoTime();
+                    if (ticket == null) {
+                        worker.mDetector.receiveFrame(outputFrame);
+                    } else if (mDownscaleFactor > 1) {
+                        detections = detectDownscaledFirst(worker, outputFrame, pixels, width, height);
+                    } else {
+                        detections = detect(worker.mDetector, outputFrame);
+                    }
+                    long detectNanos = System.nanoTime() - detectStartNanos;
+                    metrics.record(ScanMetrics.Stage.DETECTOR, detectNanos);
+                    if (mGovernor != null) {
+                        mGovernor.recordDetectorTime(detectNanos);
+                    }
+                    metrics.increment(ScanMetrics.Counter.FRAMES_PROCESSED);
                 } catch (Throwable t) {
+                    Log.e(TAG, "Exception thrown from receiver.", t);
+                    metrics.increment(ScanMetrics.Counter.DETECTOR_ERRORS);
                 } finally {
-                    mCamera.addCallbackBuffer(data.array());
+                    if (data != null) {
+                        mFrameSource.releaseFrame(data);
+                    }
+                    if (ticket != null) {
+                        completeInOrder(ticket, detections);
+                    }
                 }
             }
         }
-    }
 
-    public Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int w, int h) {
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio=(double)h / w;
+        /**
+         * Detects on the frame shrunk by the downscale factor, then on the full frame if that
+         * found nothing, starting with whichever pass found something last time.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Detector.Detections<?> detectDownscaledFirst(DetectionWorker worker, Frame frame,
+                                                             ByteBuffer pixels, int width, int height) {
+            int factor = mDownscaleFactor;
+            Frame.Metadata metadata = frame.getMetadata();
+            if (mFirstPassScale > 1 && Math.min(width, height) / factor >= MIN_DOWNSCALED_SIZE) {
+                FrameDownscaler downscaler = worker.mFrameDownscaler;
+                byte[] downscaled = downscaler.downscale(pixels, width, height, factor);
+                if (worker.mDownscaledFrameData == null || worker.mDownscaledFrameData.array() != downscaled) {
+                    worker.mDownscaledFrameData = ByteBuffer.wrap(downscaled);
+                }
+                Frame downscaledFrame = new Frame.Builder()
+                        .setImageData(worker.mDownscaledFrameData, downscaler.getOutputWidth(),
+                                downscaler.getOutputHeight(), ImageFormat.NV21)
+                        .setId(metadata.getId())
+                        .setTimestampMillis(metadata.getTimestampMillis())
+                        .setRotation(metadata.getRotation())
+                        .build();
+                Detector detector = worker.mDetector;
+                SparseArray items = detector.detect(downscaledFrame);
+                if (items.size() > 0) {
+                    for (int i = 0; i < items.size(); ++i) {
+                        ((ResultScaler) mResultScaler).scale(items.valueAt(i), factor);
+                    }
+                    // Delivered with the metadata of the full frame, like the other results.
+                    return new Detector.Detections(items, metadata, detector.isOperational());
+                }
+                ScanMetrics.get().increment(ScanMetrics.Counter.FULL_RESOLUTION_RETRIES);
+            }
 
-        if (sizes == null) return null;
+            Detector.Detections<?> detections = detect(worker.mDetector, frame);
+            // Stay at full resolution while only it finds something; go back to the cheap pass
+            // once the code is gone.
+            mFirstPassScale = detections.getDetectedItems().size() > 0 ? 1 : factor;
+            return detections;
+        }
 
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void completeInOrder(DetectionSequencer.Ticket<?> ticket, Detector.Detections<?> detections) {
+            ((DetectionSequencer) mSequencer).complete(ticket, detections);
+        }
+    }
 
-        int targetHeight = h;
+    /**
+     * One detection thread with its own detector, crop and downscale buffers.
+     */
+    private class DetectionWorker implements Runnable {
+        private Detector<?> mDetector;
+        private final FrameCropper mFrameCropper = new FrameCropper();
+        private int mRegionGeneration = -1;
+        private ByteBuffer mCroppedFrameData;
+        private final FrameDownscaler mFrameDownscaler = new FrameDownscaler();
+        private ByteBuffer mDownscaledFrameData;
 
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
+        DetectionWorker(Detector<?> detector) {
+            mDetector = detector;
         }
 
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
+        @Override
+        public void run() {
+            mFrameProcessor.process(this);
         }
-        return optimalSize;
+    }
+
+    public Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int w, int h) {
+        if (sizes == null) return null;
+
+        int optimal = PreviewSizeSelector.selectOptimalSize(toSizeArray(sizes), w, h);
+        return optimal >= 0 ? sizes.get(optimal) : null;
     }
 }
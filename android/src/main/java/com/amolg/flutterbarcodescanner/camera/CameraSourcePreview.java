@@ -18,6 +18,8 @@ package com.amolg.flutterbarcodescanner.camera;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Point;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -78,11 +80,15 @@ public class CameraSourcePreview extends ViewGroup {
                 com.google.android.gms.common.images.Size size = mCameraSource.getPreviewSize();
                 int min = Math.min(size.getWidth(), size.getHeight());
                 int max = Math.max(size.getWidth(), size.getHeight());
-                if (isPortraitMode()) {
-                    mOverlay.setCameraInfo(min, max);
-                } else {
-                    mOverlay.setCameraInfo(max, min);
-                }
+                int uprightWidth = isPortraitMode() ? min : max;
+                int uprightHeight = isPortraitMode() ? max : min;
+                mOverlay.setCameraInfo(uprightWidth, uprightHeight);
+
+                // Only the finder rectangle is passed on to the detector.
+                RectF region = mOverlay.getFinderRegion(uprightWidth, uprightHeight);
+                mCameraSource.setRegionOfInterest(region.left, region.top, region.right, region.bottom);
+                Point offset = mCameraSource.getRegionOfInterestOffset();
+                mOverlay.setFrameOffset(offset.x, offset.y);
                 mOverlay.clear();
             }
             mStartRequested = false;
@@ -0,0 +1,43 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ * Processor wrapper that tells a listener how many items each frame's detections hold, and when
+ * they arrived, before passing them on to the delegate unchanged.
+ * <p/>
+ * It feeds the parts of the pipeline that only need to know whether something is in view, such as
+ * {@link FrameRateGovernor} and {@link RefocusTrigger}.
+ */
+final class DetectionObserver<T> implements Detector.Processor<T> {
+    interface Listener {
+        /**
+         * Called on the detector thread for every frame.
+         *
+         * @param count     the number of items detected in the frame
+         * @param nowMillis {@link SystemClock#elapsedRealtime()} when the detections arrived
+         */
+        void onDetections(int count, long nowMillis);
+    }
+
+    private final Detector.Processor<T> mDelegate;
+    private final Listener mListener;
+
+    DetectionObserver(Detector.Processor<T> delegate, Listener listener) {
+        mDelegate = delegate;
+        mListener = listener;
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+    }
+
+    @Override
+    public void receiveDetections(Detector.Detections<T> detections) {
+        mListener.onDetections(detections.getDetectedItems().size(), SystemClock.elapsedRealtime());
+        mDelegate.receiveDetections(detections);
+    }
+}
@@ -0,0 +1,64 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.util.ArrayDeque;
+
+/**
+ * Delivers the results of frames detected in parallel to a receiver in the order the frames were
+ * dispatched.
+ * <p/>
+ * Every frame handed to a worker first gets a ticket from {@link #dispatch()}.  When a worker
+ * finishes, it completes its ticket; results that finish ahead of an older frame are held back
+ * until that frame completes, so the receiver (e.g. a {@code MultiProcessor} and its trackers)
+ * always sees increasing timestamps.  Delivery happens on the worker thread that completes the
+ * oldest outstanding ticket, one result at a time.
+ */
+class DetectionSequencer<R> {
+    interface Receiver<R> {
+        void receive(R result);
+    }
+
+    private final Receiver<R> mReceiver;
+    private final ArrayDeque<Ticket<R>> mInFlight = new ArrayDeque<>();
+
+    static final class Ticket<R> {
+        private boolean mCompleted;
+        private R mResult;
+    }
+
+    DetectionSequencer(Receiver<R> receiver) {
+        mReceiver = receiver;
+    }
+
+    /**
+     * Reserves the next position in the delivery order.  Must be called in frame order.
+     */
+    synchronized Ticket<R> dispatch() {
+        Ticket<R> ticket = new Ticket<>();
+        mInFlight.addLast(ticket);
+        return ticket;
+    }
+
+    /**
+     * Completes a ticket and delivers every result that is now in order.
+     *
+     * @param result the result of the frame, or null if the frame produced none (e.g. the
+     *               detector failed); the frame is then skipped
+     */
+    synchronized void complete(Ticket<R> ticket, R result) {
+        ticket.mResult = result;
+        ticket.mCompleted = true;
+        while (!mInFlight.isEmpty() && mInFlight.peekFirst().mCompleted) {
+            Ticket<R> head = mInFlight.removeFirst();
+            if (head.mResult != null) {
+                mReceiver.receive(head.mResult);
+            }
+        }
+    }
+
+    /**
+     * Forgets all outstanding tickets, once the workers have stopped.
+     */
+    synchronized void reset() {
+        mInFlight.clear();
+    }
+}
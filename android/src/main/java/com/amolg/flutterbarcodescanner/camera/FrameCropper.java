@@ -0,0 +1,249 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crops NV21 preview frames down to a region of interest before they are handed to the detector.
+ * <p/>
+ * The region is given in normalized coordinates ([0, 1]) of the upright image, i.e. the image as it
+ * is shown to the user after applying the frame rotation.  It is mapped back onto the sensor
+ * oriented buffer here so that only the Y and interleaved VU rows inside the region are copied.
+ * The crop rectangle is kept on even coordinates so that the chroma plane stays aligned.  Frames
+ * that only carry the Y plane, as delivered by {@link Camera2FrameSource}, are cropped to luma
+ * only.
+ * <p/>
+ * Not thread safe; owned by the frame processing thread.
+ */
+public class FrameCropper {
+    private float mLeft = 0.0f;
+    private float mTop = 0.0f;
+    private float mRight = 1.0f;
+    private float mBottom = 1.0f;
+
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mRotation;
+
+    // Crop rectangle in sensor (buffer) coordinates.
+    private int mCropLeft;
+    private int mCropTop;
+    private int mCropWidth;
+    private int mCropHeight;
+
+    private byte[] mOutput;
+
+    // Scratch space for the region mapped onto the sensor oriented buffer.
+    private final float[] mSensorRegion = new float[4];
+
+    /**
+     * Sets the region of interest in normalized upright coordinates.  Values are clamped to [0, 1].
+     */
+    public void setRegion(float left, float top, float right, float bottom) {
+        mLeft = clamp(Math.min(left, right));
+        mTop = clamp(Math.min(top, bottom));
+        mRight = clamp(Math.max(left, right));
+        mBottom = clamp(Math.max(top, bottom));
+        updateCropRect();
+    }
+
+    /**
+     * Sets the size of the incoming frames, in sensor orientation, and the rotation (one of the
+     * {@code Frame.ROTATION_*} values) needed to make them upright.
+     */
+    public void setFrameGeometry(int width, int height, int rotation) {
+        if (width == mFrameWidth && height == mFrameHeight && rotation == mRotation) {
+            return;
+        }
+        mFrameWidth = width;
+        mFrameHeight = height;
+        mRotation = rotation;
+        updateCropRect();
+    }
+
+    public boolean isFullFrame() {
+        return mCropWidth == mFrameWidth && mCropHeight == mFrameHeight;
+    }
+
+    public int getCropWidth() {
+        return mCropWidth;
+    }
+
+    public int getCropHeight() {
+        return mCropHeight;
+    }
+
+    /**
+     * Returns the x offset of the cropped image inside the full upright image.  Detections made on
+     * the cropped frame are shifted by this amount to land on the full preview again.
+     */
+    public int getUprightOffsetX() {
+        switch (mRotation) {
+            case 1:
+                return mFrameHeight - (mCropTop + mCropHeight);
+            case 2:
+                return mFrameWidth - (mCropLeft + mCropWidth);
+            case 3:
+                return mCropTop;
+            default:
+                return mCropLeft;
+        }
+    }
+
+    /**
+     * Returns the y offset of the cropped image inside the full upright image.
+     */
+    public int getUprightOffsetY() {
+        switch (mRotation) {
+            case 1:
+                return mCropLeft;
+            case 2:
+                return mFrameHeight - (mCropTop + mCropHeight);
+            case 3:
+                return mFrameWidth - (mCropLeft + mCropWidth);
+            default:
+                return mCropTop;
+        }
+    }
+
+    /**
+     * Copies the region of interest out of the supplied NV21 frame.  The returned array is reused
+     * between calls and holds {@link #getCropWidth()} x {@link #getCropHeight()} pixels in NV21.
+     */
+    public byte[] crop(ByteBuffer frame) {
+        int width = mCropWidth;
+        int height = mCropHeight;
+        int size = width * height + width * (height / 2);
+        if (mOutput == null || mOutput.length < size) {
+            mOutput = new byte[size];
+        }
+        if (frame.hasArray()) {
+            cropNv21(frame.array(), mFrameWidth, mFrameHeight, mCropLeft, mCropTop, width, height, mOutput);
+        } else {
+            cropNv21(frame, mFrameWidth, mFrameHeight, mCropLeft, mCropTop, width, height, mOutput);
+        }
+        return mOutput;
+    }
+
+    /**
+     * Copies a rectangle out of an NV21 image.  {@code left}, {@code top}, {@code width} and
+     * {@code height} must be even.  The chroma plane is skipped if {@code src} only holds luma.
+     */
+    public static void cropNv21(byte[] src, int srcWidth, int srcHeight,
+                                int left, int top, int width, int height, byte[] dst) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(src, (top + row) * srcWidth + left, dst, row * width, width);
+        }
+
+        int srcChroma = srcWidth * srcHeight;
+        if (src.length < srcChroma + srcWidth * (srcHeight / 2)) {
+            return;
+        }
+        int dstChroma = width * height;
+        int chromaTop = top / 2;
+        for (int row = 0; row < height / 2; row++) {
+            System.arraycopy(src, srcChroma + (chromaTop + row) * srcWidth + left,
+                    dst, dstChroma + row * width, width);
+        }
+    }
+
+    /**
+     * Same as {@link #cropNv21(byte[], int, int, int, int, int, int, byte[])} for buffers without
+     * a backing array, such as the direct buffers of camera images.
+     */
+    public static void cropNv21(ByteBuffer src, int srcWidth, int srcHeight,
+                                int left, int top, int width, int height, byte[] dst) {
+        for (int row = 0; row < height; row++) {
+            src.position((top + row) * srcWidth + left);
+            src.get(dst, row * width, width);
+        }
+
+        int srcChroma = srcWidth * srcHeight;
+        if (src.capacity() >= srcChroma + srcWidth * (srcHeight / 2)) {
+            int dstChroma = width * height;
+            int chromaTop = top / 2;
+            for (int row = 0; row < height / 2; row++) {
+                src.position(srcChroma + (chromaTop + row) * srcWidth + left);
+                src.get(dst, dstChroma + row * width, width);
+            }
+        }
+        src.position(0);
+    }
+
+    /**
+     * Maps a region in normalized upright coordinates onto the sensor oriented frame, for the given
+     * rotation (one of the {@code Frame.ROTATION_*} values).  The normalized left, top, right and
+     * bottom of the result are written to {@code out}.
+     */
+    public static void toSensorRegion(float left, float top, float right, float bottom, int rotation, float[] out) {
+        switch (rotation) {
+            case 1:
+                out[0] = top;
+                out[1] = 1.0f - right;
+                out[2] = bottom;
+                out[3] = 1.0f - left;
+                break;
+            case 2:
+                out[0] = 1.0f - right;
+                out[1] = 1.0f - bottom;
+                out[2] = 1.0f - left;
+                out[3] = 1.0f - top;
+                break;
+            case 3:
+                out[0] = 1.0f - bottom;
+                out[1] = left;
+                out[2] = 1.0f - top;
+                out[3] = right;
+                break;
+            default:
+                out[0] = left;
+                out[1] = top;
+                out[2] = right;
+                out[3] = bottom;
+                break;
+        }
+    }
+
+    private void updateCropRect() {
+        if (mFrameWidth == 0 || mFrameHeight == 0) {
+            return;
+        }
+
+        // Map the upright region back onto the sensor oriented buffer.
+        float[] region = mSensorRegion;
+        toSensorRegion(mLeft, mTop, mRight, mBottom, mRotation, region);
+        float left = region[0];
+        float top = region[1];
+        float right = region[2];
+        float bottom = region[3];
+
+        int cropLeft = evenFloor(left * mFrameWidth);
+        int cropTop = evenFloor(top * mFrameHeight);
+        int cropRight = Math.min(evenCeil(right * mFrameWidth), evenFloor(mFrameWidth));
+        int cropBottom = Math.min(evenCeil(bottom * mFrameHeight), evenFloor(mFrameHeight));
+
+        if (cropRight - cropLeft < 2 || cropBottom - cropTop < 2) {
+            // Degenerate region, fall back to the full frame.
+            cropLeft = 0;
+            cropTop = 0;
+            cropRight = mFrameWidth;
+            cropBottom = mFrameHeight;
+        }
+
+        mCropLeft = cropLeft;
+        mCropTop = cropTop;
+        mCropWidth = cropRight - cropLeft;
+        mCropHeight = cropBottom - cropTop;
+    }
+
+    private static int evenFloor(float value) {
+        return ((int) Math.floor(value)) & ~1;
+    }
+
+    private static int evenCeil(float value) {
+        return (((int) Math.ceil(value)) + 1) & ~1;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0.0f, Math.min(1.0f, value));
+    }
+}
@@ -0,0 +1,100 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shrinks the luma plane of NV21 frames by an integer factor, for a cheap first detection pass.
+ * <p/>
+ * Each output pixel is the average of a factor x factor block, which keeps bar edges from
+ * aliasing the way plain subsampling would.  The output is an NV21 image whose chroma plane is
+ * neutral grey; detectors only look at luma.  Its dimensions are rounded down to even numbers.
+ * <p/>
+ * Not thread safe; owned by one detection thread.
+ */
+public class FrameDownscaler {
+    private byte[] mOutput;
+    private byte[] mRow;
+    private int[] mSums;
+    private int mOutputWidth;
+    private int mOutputHeight;
+
+    /**
+     * Downscales the luma plane of the supplied frame.  The returned array is reused between calls
+     * and holds {@link #getOutputWidth()} x {@link #getOutputHeight()} pixels in NV21.
+     *
+     * @param factor 2 or 4
+     */
+    public byte[] downscale(ByteBuffer frame, int width, int height, int factor) {
+        int shift = factor == 4 ? 4 : 2;
+        int outWidth = (width / factor) & ~1;
+        int outHeight = (height / factor) & ~1;
+        allocate(outWidth, outHeight, width);
+
+        byte[] src = frame.hasArray() ? frame.array() : null;
+        int srcOffset = frame.hasArray() ? frame.arrayOffset() : 0;
+        int[] sums = mSums;
+        for (int outRow = 0; outRow < outHeight; outRow++) {
+            for (int x = 0; x < outWidth; x++) {
+                sums[x] = 0;
+            }
+            for (int i = 0; i < factor; i++) {
+                int rowStart = (outRow * factor + i) * width;
+                byte[] row;
+                int rowOffset;
+                if (src != null) {
+                    row = src;
+                    rowOffset = srcOffset + rowStart;
+                } else {
+                    frame.position(rowStart);
+                    frame.get(mRow, 0, outWidth * factor);
+                    row = mRow;
+                    rowOffset = 0;
+                }
+                for (int x = 0; x < outWidth; x++) {
+                    int offset = rowOffset + x * factor;
+                    for (int j = 0; j < factor; j++) {
+                        sums[x] += row[offset + j] & 0xff;
+                    }
+                }
+            }
+            int dst = outRow * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                mOutput[dst + x] = (byte) (sums[x] >> shift);
+            }
+        }
+        if (src == null) {
+            frame.position(0);
+        }
+        return mOutput;
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    private void allocate(int outWidth, int outHeight, int srcWidth) {
+        if (mRow == null || mRow.length < srcWidth) {
+            mRow = new byte[srcWidth];
+        }
+        if (mSums == null || mSums.length < outWidth) {
+            mSums = new int[outWidth];
+        }
+        if (outWidth == mOutputWidth && outHeight == mOutputHeight) {
+            return;
+        }
+        int lumaSize = outWidth * outHeight;
+        int size = lumaSize + outWidth * (outHeight / 2);
+        if (mOutput == null || mOutput.length < size) {
+            mOutput = new byte[size];
+        }
+        for (int i = lumaSize; i < size; i++) {
+            mOutput[i] = (byte) 128;
+        }
+        mOutputWidth = outWidth;
+        mOutputHeight = outHeight;
+    }
+}
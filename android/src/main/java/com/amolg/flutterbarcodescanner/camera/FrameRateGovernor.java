@@ -0,0 +1,131 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ * Decides which preview frames are worth running the detector on.
+ * <p/>
+ * While something has been detected recently, every frame is processed so that tracking stays
+ * smooth.  Once nothing has been seen for the idle timeout, the governor backs off to a low rate:
+ * at most the idle frame rate, and never more often than keeps the detector busy for
+ * {@link #IDLE_DUTY_CYCLE} of the time, based on the measured average detector time.  The first
+ * detection switches back to full rate.
+ * <p/>
+ * The governor sees the detections through {@link #instrument(Detector.Processor)}, a processor
+ * wrapper as described at {@link ScanMetrics#instrument(Detector.Processor)}:
+ * <pre>
+ *     FrameRateGovernor governor = new FrameRateGovernor(5.0f, 3000);
+ *     detector.setProcessor(governor.instrument(new MultiProcessor.Builder&lt;&gt;(factory).build()));
+ *     CameraSource source = new CameraSource.Builder(context, detector).setFrameRateGovernor(governor).build();
+ * </pre>
+ */
+public class FrameRateGovernor {
+    /**
+     * Largest fraction of the time the detector may be busy while idle.
+     */
+    private static final float IDLE_DUTY_CYCLE = 0.25f;
+
+    private final long mIdleIntervalMillis;
+    private final long mIdleTimeoutMillis;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private float mAverageDetectorMillis;
+    private long mLastDetectionMillis = -1;
+    private long mLastProcessedMillis = -1;
+    private long mStartMillis = -1;
+
+    /**
+     * @param idleFps           highest processing rate while nothing is being detected
+     * @param idleTimeoutMillis how long after the last detection, or after starting, the
+     *                          governor keeps processing every frame
+     */
+    public FrameRateGovernor(float idleFps, long idleTimeoutMillis) {
+        if (idleFps <= 0) {
+            throw new IllegalArgumentException("Invalid idle fps: " + idleFps);
+        }
+        mIdleIntervalMillis = Math.round(1000.0f / idleFps);
+        mIdleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+    }
+
+    /**
+     * Restarts the idle timeout, e.g. when the camera is started.
+     */
+    public void reset(long nowMillis) {
+        synchronized (mLock) {
+            mStartMillis = nowMillis;
+            mLastDetectionMillis = -1;
+            mLastProcessedMillis = -1;
+        }
+    }
+
+    /**
+     * Returns whether the frame arriving now should be processed.  A {@code true} result counts
+     * as processing the frame.
+     */
+    public boolean shouldProcess(long nowMillis) {
+        synchronized (mLock) {
+            if (!isIdleLocked(nowMillis) || mLastProcessedMillis < 0
+                    || nowMillis - mLastProcessedMillis >= getIdleIntervalLocked()) {
+                mLastProcessedMillis = nowMillis;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Records how long the detector took on one frame.
+     */
+    public void recordDetectorTime(long elapsedNanos) {
+        float millis = elapsedNanos / 1000000.0f;
+        synchronized (mLock) {
+            mAverageDetectorMillis = mAverageDetectorMillis == 0
+                    ? millis : mAverageDetectorMillis * 0.9f + millis * 0.1f;
+        }
+    }
+
+    /**
+     * Records the result of one frame.
+     */
+    public void recordDetections(int count, long nowMillis) {
+        if (count > 0) {
+            synchronized (mLock) {
+                mLastDetectionMillis = nowMillis;
+            }
+        }
+    }
+
+    public boolean isIdle(long nowMillis) {
+        synchronized (mLock) {
+            return isIdleLocked(nowMillis);
+        }
+    }
+
+    public float getAverageDetectorMillis() {
+        synchronized (mLock) {
+            return mAverageDetectorMillis;
+        }
+    }
+
+    /**
+     * Wraps the processor detections are delivered to, so that the governor learns when
+     * something is in view.
+     */
+    public <T> Detector.Processor<T> instrument(Detector.Processor<T> delegate) {
+        return new DetectionObserver<>(delegate, this::recordDetections);
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private boolean isIdleLocked(long nowMillis) {
+        long lastActivity = Math.max(mLastDetectionMillis, mStartMillis);
+        return lastActivity >= 0 && nowMillis - lastActivity > mIdleTimeoutMillis;
+    }
+
+    private long getIdleIntervalLocked() {
+        return Math.max(mIdleIntervalMillis, (long) (mAverageDetectorMillis / IDLE_DUTY_CYCLE));
+    }
+}
@@ -0,0 +1,49 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+/**
+ * Turns the luma plane of sensor oriented frames upright, for decoders that scan along rows and
+ * do not handle rotation themselves.
+ * <p/>
+ * The rotation is one of the {@code Frame.ROTATION_*} values, i.e. the quarter turns clockwise
+ * needed to make the frame upright, as reported by {@link FrameSource#getRotation()}.
+ */
+public final class FrameRotator {
+    private FrameRotator() {
+    }
+
+    /**
+     * Copies the {@code width} x {@code height} luma plane at the start of {@code src} into
+     * {@code dst}, rotated.  For odd rotations the output is {@code height} pixels wide.
+     * {@code dst} must hold at least {@code width * height} bytes and must not be {@code src}.
+     */
+    public static void rotateLuma(byte[] src, int width, int height, int rotation, byte[] dst) {
+        int size = width * height;
+        switch (rotation) {
+            case 1:
+                // (x, y) -> (height - 1 - y, x)
+                for (int y = 0; y < height; y++) {
+                    int dstX = height - 1 - y;
+                    for (int x = 0, i = y * width; x < width; x++, i++) {
+                        dst[x * height + dstX] = src[i];
+                    }
+                }
+                break;
+            case 2:
+                for (int i = 0, j = size - 1; i < size; i++, j--) {
+                    dst[j] = src[i];
+                }
+                break;
+            case 3:
+                // (x, y) -> (y, width - 1 - x)
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0, i = y * width; x < width; x++, i++) {
+                        dst[(width - 1 - x) * height + y] = src[i];
+                    }
+                }
+                break;
+            default:
+                System.arraycopy(src, 0, dst, 0, size);
+                break;
+        }
+    }
+}
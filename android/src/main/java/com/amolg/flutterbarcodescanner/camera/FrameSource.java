@@ -0,0 +1,62 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Supplies NV21 frames to the frame processing pipeline of {@link CameraSource}.
+ * <p/>
+ * By default frames come from the camera preview.  Other implementations, such as
+ * {@link ReplayFrameSource}, let the detection pipeline run without a physical camera.
+ */
+public interface FrameSource {
+    /**
+     * Receives frames from a frame source.
+     */
+    interface FrameCallback {
+        /**
+         * Called for every frame produced by the source.  The buffer stays owned by the pipeline
+         * until it is handed back with {@link FrameSource#releaseFrame(ByteBuffer)}.
+         *
+         * @param data            the frame in NV21, {@link #getFrameSize()} pixels
+         * @param timestampMillis the capture time of the frame in the source's time base
+         */
+        void onFrame(ByteBuffer data, long timestampMillis);
+    }
+
+    /**
+     * Starts delivering frames to the callback.
+     *
+     * @throws IOException if the source could not be started
+     */
+    void start(FrameCallback callback) throws IOException;
+
+    /**
+     * Stops delivering frames.  The source may be started again afterwards.
+     */
+    void stop();
+
+    /**
+     * Returns the size of the frames, in sensor orientation.
+     */
+    Size getFrameSize();
+
+    /**
+     * Returns the rotation needed to make frames upright, one of the {@code Frame.ROTATION_*}
+     * values.
+     */
+    int getRotation();
+
+    /**
+     * Hands a frame buffer back to the source once the pipeline no longer needs it.
+     */
+    void releaseFrame(ByteBuffer data);
+
+    /**
+     * Returns how many frames the source could not deliver because the pipeline still held all
+     * of its buffers.
+     */
+    long getDroppedFrameCount();
+}
@@ -19,26 +19,45 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 import com.google.android.gms.vision.CameraSource;
 
-import java.util.HashSet;
-import java.util.Set;
-
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws the finder rectangle and the graphics of detected items over the camera preview.
+ * <p/>
+ * Graphics may be added, removed and updated from any thread.  They are published to the UI thread
+ * as immutable snapshots, so tracker callbacks on the detector thread never wait for a draw.
+ * Redraws requested in between are coalesced into one per display frame through the
+ * {@link Choreographer}, and drawing allocates nothing, so the overlay stays cheap next to the
+ * detector on slow devices.  The view draws nothing that needs a software layer, so it is hardware
+ * accelerated where the window is.
+ */
 public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     private final Object mLock = new Object();
-    private int mPreviewWidth;
-    private float mWidthScaleFactor = 1.0f;
-    private int mPreviewHeight;
-    private float mHeightScaleFactor = 1.0f;
     private int mFacing = CameraSource.CAMERA_FACING_BACK;
-    private final Set<T> mGraphics = new HashSet<>();
+    private final SnapshotSet<T> mGraphics = new SnapshotSet<>();
+    private final RectF mFinderRect = new RectF();
+
+    // At most one redraw is scheduled at a time.
+    private final Choreographer mChoreographer;
+    private final AtomicBoolean mRedrawScheduled = new AtomicBoolean();
+    private final Choreographer.FrameCallback mRedraw = frameTimeNanos -> {
+        mRedrawScheduled.set(false);
+        invalidate();
+    };
+
+    // Maps detection coordinates to view coordinates.
+    private final OverlayTransform mTransform = new OverlayTransform();
+
+    // Explicit finder region in normalized coordinates, or null to derive it from the scan mode.
+    private RectF mFinderRegion;
 
-    private Paint mFinderMaskPaint;
     private Paint mFinderBorderPaint;
     private int lineColor = Color.parseColor("#FFFFFF");
     private String scanMode;
@@ -58,11 +77,8 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setLayerType(LAYER_TYPE_SOFTWARE, null);
-        mFinderMaskPaint = new Paint();
-        mFinderMaskPaint.setColor(Color.BLACK);
-        mFinderMaskPaint.setStyle(Paint.Style.FILL);
-        mFinderMaskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        // Views are created on the main thread, whose choreographer drives the redraws
+        mChoreographer = Choreographer.getInstance();
         mFinderBorderPaint = new Paint();
         mFinderBorderPaint.setColor(lineColor);
         mFinderBorderPaint.setStrokeWidth(8);
@@ -82,46 +98,108 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         this.scanMode = mode;
     }
 
+    /**
+     * Overrides the finder rectangle with a region given in normalized coordinates ([0, 1]) of
+     * the preview.
+     */
+    public void setFinderRegion(float left, float top, float right, float bottom) {
+        mFinderRegion = new RectF(left, top, right, bottom);
+        requestRedraw();
+    }
 
-    public void clear() {
-        synchronized (mLock) {
-            mGraphics.clear();
+    /**
+     * Returns the finder rectangle in normalized coordinates for an upright preview of the given
+     * size.  This is the region the user aims at, and the one frames are cropped to.
+     */
+    public RectF getFinderRegion(int previewWidth, int previewHeight) {
+        if (mFinderRegion != null) {
+            return new RectF(mFinderRegion);
         }
-        postInvalidate();
+        RectF rect = new RectF();
+        computeFinderRect(previewWidth, previewHeight, rect);
+        rect.left /= previewWidth;
+        rect.right /= previewWidth;
+        rect.top /= previewHeight;
+        rect.bottom /= previewHeight;
+        return rect;
     }
 
-    public void add(T graphic) {
+    /**
+     * Sets the position, in preview pixels, of the frame region the detector works on.  Detection
+     * coordinates are relative to that region and are shifted back by this offset when drawn.
+     */
+    public void setFrameOffset(int x, int y) {
         synchronized (mLock) {
-            mGraphics.add(graphic);
+            mTransform.setFrameOffset(x, y);
         }
-        postInvalidate();
+        requestRedraw();
+    }
+
+    /**
+     * Redraws the overlay on the next display frame.  May be called from any thread, as often as
+     * graphics change; calls before the frame are coalesced into one redraw.
+     */
+    public void requestRedraw() {
+        if (mRedrawScheduled.compareAndSet(false, true)) {
+            mChoreographer.postFrameCallback(mRedraw);
+        }
+    }
+
+    public void clear() {
+        mGraphics.clear();
+        requestRedraw();
+    }
+
+    public void add(T graphic) {
+        mGraphics.add(graphic);
+        requestRedraw();
     }
 
     public void remove(T graphic) {
-        synchronized (mLock) {
-            mGraphics.remove(graphic);
+        if (mGraphics.remove(graphic)) {
+            requestRedraw();
         }
-        postInvalidate();
     }
 
     public void setCameraInfo(int previewWidth, int previewHeight) {
         synchronized (mLock) {
-            mPreviewWidth = previewWidth;
-            mPreviewHeight = previewHeight;
+            mTransform.setPreviewSize(previewWidth, previewHeight);
         }
-        postInvalidate();
+        requestRedraw();
     }
 
     public float translateX(float x) {
-        if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
-            return getWidth() - (x * mWidthScaleFactor);
+        return mTransform.translateX(x);
+    }
+
+    public float translateY(float y) {
+        return mTransform.translateY(y);
+    }
+
+    private void computeFinderRect(float width, float height, RectF out) {
+        if (mFinderRegion != null) {
+            out.set(mFinderRegion.left * width, mFinderRegion.top * height,
+                    mFinderRegion.right * width, mFinderRegion.bottom * height);
+            return;
+        }
+        float rectWidth = width * 0.8f;
+        float rectHeight;
+        if ("QR".equalsIgnoreCase(scanMode)) {
+            rectHeight = width * 0.8f;
         } else {
-            return x * mWidthScaleFactor;
+            rectHeight = width * 0.5f;
         }
+        rectHeight = Math.min(rectHeight, height);
+        float left = (width - rectWidth) / 2;
+        float top = (height - rectHeight) / 2;
+        out.set(left, top, left + rectWidth, top + rectHeight);
     }
 
-    public float translateY(float y) {
-        return y * mHeightScaleFactor;
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mChoreographer.removeFrameCallback(mRedraw);
+        mRedrawScheduled.set(false);
     }
 
     @Override
@@ -129,29 +207,15 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         super.onDraw(canvas);
 
         synchronized (mLock) {
-            if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
-                mWidthScaleFactor = (float) getWidth() / (float) mPreviewWidth;
-                mHeightScaleFactor = (float) getHeight() / (float) mPreviewHeight;
-            }
-
-            for (Graphic graphic : mGraphics) {
-                graphic.draw(canvas);
-            }
+            mTransform.setMirrored(mFacing == CameraSource.CAMERA_FACING_FRONT);
+            mTransform.setViewSize(getWidth(), getHeight());
         }
-        int canvasWidth = canvas.getWidth();
-        int canvasHeight = canvas.getHeight();
-        RectF rect = new RectF(0, 0, canvasWidth, canvasHeight);
-        float rectWidth = canvasWidth * 0.8f;
-        float rectHeight;
-        if ("QR".equalsIgnoreCase(scanMode)) {
-            rectHeight = canvasWidth * 0.8f;
-        } else {
-            rectHeight = canvasWidth * 0.5f;
+        List<T> graphics = mGraphics.snapshot();
+        for (int i = 0; i < graphics.size(); ++i) {
+            graphics.get(i).draw(canvas);
         }
-        float left = (canvasWidth - rectWidth) / 2;
-        float top = (canvasHeight - rectHeight) / 2;
-        float right = left + rectWidth;
-        float bottom = top + rectHeight;
-        canvas.drawRect(left,top,right,bottom,mFinderBorderPaint);
+
+        computeFinderRect(getWidth(), getHeight(), mFinderRect);
+        canvas.drawRect(mFinderRect, mFinderBorderPaint);
     }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed-bucket latency histogram.  Recording is constant time and allocation free, so it can sit
+ * on the frame path; percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    /**
+     * Upper bucket bounds in microseconds; one more bucket collects everything above the last.
+     */
+    private static final long[] BOUNDS_MICROS = {
+            100, 250, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000,
+            1000000, 2000000, 5000000, 10000000
+    };
+
+    private final long[] mCounts = new long[BOUNDS_MICROS.length + 1];
+    private long mCount;
+    private long mSumMicros;
+    private long mMaxMicros;
+
+    /**
+     * Records one sample.
+     */
+    public synchronized void record(long elapsedNanos) {
+        long micros = Math.max(0, elapsedNanos / 1000);
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mCount++;
+        mSumMicros += micros;
+        mMaxMicros = Math.max(mMaxMicros, micros);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized double getMeanMillis() {
+        return mCount > 0 ? mSumMicros / 1000.0 / mCount : 0.0;
+    }
+
+    public synchronized double getMaxMillis() {
+        return mMaxMicros / 1000.0;
+    }
+
+    /**
+     * Returns the latency below which the given fraction (0 to 1) of samples fall.
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        if (mCount == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * mCount));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MICROS.length; ++i) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS_MICROS[i], mMaxMicros) / 1000.0;
+            }
+        }
+        return mMaxMicros / 1000.0;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; ++i) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSumMicros = 0;
+        mMaxMicros = 0;
+    }
+
+    /**
+     * Returns the summary as a map of standard message codec types.
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", mCount);
+        map.put("meanMillis", getMeanMillis());
+        map.put("p50Millis", getPercentileMillis(0.5));
+        map.put("p95Millis", getPercentileMillis(0.95));
+        map.put("p99Millis", getPercentileMillis(0.99));
+        map.put("maxMillis", getMaxMillis());
+        return map;
+    }
+}
@@ -0,0 +1,66 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+/**
+ * Maps detection coordinates, in upright preview pixels relative to the detection region, to view
+ * coordinates of the overlay drawn over the preview.
+ * <p/>
+ * Not thread safe; {@link GraphicOverlay} guards it with its lock.
+ */
+public class OverlayTransform {
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private int mViewWidth;
+    private float mWidthScaleFactor = 1.0f;
+    private float mHeightScaleFactor = 1.0f;
+    private int mFrameOffsetX;
+    private int mFrameOffsetY;
+    private boolean mMirrored;
+
+    /**
+     * Sets the size of the upright preview the detections are made on.
+     */
+    public void setPreviewSize(int width, int height) {
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+    }
+
+    /**
+     * Sets the size of the view the preview fills, and updates the scale factors if the preview
+     * size is known.
+     */
+    public void setViewSize(int width, int height) {
+        mViewWidth = width;
+        if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
+            mWidthScaleFactor = (float) width / (float) mPreviewWidth;
+            mHeightScaleFactor = (float) height / (float) mPreviewHeight;
+        }
+    }
+
+    /**
+     * Sets the position of the detection region inside the preview, added to detection
+     * coordinates.
+     */
+    public void setFrameOffset(int x, int y) {
+        mFrameOffsetX = x;
+        mFrameOffsetY = y;
+    }
+
+    /**
+     * Mirrors x coordinates, for the front camera.
+     */
+    public void setMirrored(boolean mirrored) {
+        mMirrored = mirrored;
+    }
+
+    public float translateX(float x) {
+        if (mMirrored) {
+            return mViewWidth - ((x + mFrameOffsetX) * mWidthScaleFactor);
+        } else {
+            return (x + mFrameOffsetX) * mWidthScaleFactor;
+        }
+    }
+
+    public float translateY(float y) {
+        return (y + mFrameOffsetY) * mHeightScaleFactor;
+    }
+}
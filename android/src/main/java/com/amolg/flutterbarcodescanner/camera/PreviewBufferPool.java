@@ -0,0 +1,152 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed set of preview buffers shared between the camera and the frame processing pipeline.
+ * <p/>
+ * Each slot holds a byte array, for the camera callback, and the byte buffer wrapping it, for the
+ * detector.  Arrays are looked up by identity over the few slots instead of through a hash map,
+ * and the buffers survive stop/start cycles as long as the frame size does not change, so a
+ * restart does not reallocate several megabytes.
+ * <p/>
+ * The pool also tracks how many of its buffers are queued with the camera.  When none are, the
+ * camera has nowhere to write and silently skips frames; those frames are estimated from the
+ * time spent without a queued buffer and the observed frame interval, and counted as dropped.
+ */
+public class PreviewBufferPool {
+    private final int mDepth;
+    private final byte[][] mArrays;
+    private final ByteBuffer[] mBuffers;
+    private int mBufferSize;
+
+    // Guarded by this.
+    private int mQueued;
+    private long mLastDeliveryMillis = -1;
+    private float mFrameIntervalMillis;
+    private long mStarvedSinceMillis = -1;
+    private long mDroppedFrames;
+
+    /**
+     * @param depth number of buffers; at least 3, one being processed, one pending and one for
+     *              the camera to fill
+     */
+    public PreviewBufferPool(int depth) {
+        if (depth < 3) {
+            throw new IllegalArgumentException("Invalid preview buffer count: " + depth);
+        }
+        mDepth = depth;
+        mArrays = new byte[depth][];
+        mBuffers = new ByteBuffer[depth];
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Makes sure every slot holds a buffer of the given size, reusing the existing buffers when
+     * they already have that size.  Must not be called while buffers are in use.
+     */
+    public synchronized void allocate(int bufferSize) {
+        if (bufferSize != mBufferSize) {
+            for (int i = 0; i < mDepth; ++i) {
+                byte[] byteArray = new byte[bufferSize];
+                ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+                if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+                    throw new IllegalStateException("Failed to create valid buffer for camera source.");
+                }
+                mArrays[i] = byteArray;
+                mBuffers[i] = buffer;
+            }
+            mBufferSize = bufferSize;
+        }
+        mQueued = 0;
+        mLastDeliveryMillis = -1;
+        mStarvedSinceMillis = -1;
+    }
+
+    /**
+     * Drops all buffers.
+     */
+    public synchronized void release() {
+        for (int i = 0; i < mDepth; ++i) {
+            mArrays[i] = null;
+            mBuffers[i] = null;
+        }
+        mBufferSize = 0;
+        mQueued = 0;
+    }
+
+    public byte[] getArray(int slot) {
+        return mArrays[slot];
+    }
+
+    /**
+     * Returns the slot holding the given array, or -1 if it does not belong to this pool.
+     */
+    public int indexOf(byte[] data) {
+        for (int i = 0; i < mDepth; ++i) {
+            if (mArrays[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot holding the given buffer, or -1 if it does not belong to this pool.
+     */
+    public int indexOf(ByteBuffer data) {
+        for (int i = 0; i < mDepth; ++i) {
+            if (mBuffers[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public ByteBuffer getBuffer(int slot) {
+        return mBuffers[slot];
+    }
+
+    /**
+     * Records that a buffer was handed to the camera.
+     */
+    public synchronized void markQueued(long nowMillis) {
+        if (mQueued == 0 && mStarvedSinceMillis >= 0) {
+            if (mFrameIntervalMillis > 0) {
+                mDroppedFrames += (long) ((nowMillis - mStarvedSinceMillis) / mFrameIntervalMillis);
+            }
+            // The next delivery interval includes the starved time, so it is not measured.
+            mLastDeliveryMillis = -1;
+        }
+        mStarvedSinceMillis = -1;
+        mQueued++;
+    }
+
+    /**
+     * Records that the camera filled a buffer and delivered it.
+     */
+    public synchronized void markDelivered(long nowMillis) {
+        if (mQueued > 0) {
+            mQueued--;
+        }
+        if (mLastDeliveryMillis >= 0 && mStarvedSinceMillis < 0) {
+            long interval = nowMillis - mLastDeliveryMillis;
+            mFrameIntervalMillis = mFrameIntervalMillis == 0
+                    ? interval : mFrameIntervalMillis * 0.9f + interval * 0.1f;
+        }
+        mLastDeliveryMillis = nowMillis;
+        if (mQueued == 0) {
+            mStarvedSinceMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Returns the estimated number of frames the camera skipped because no buffer was free.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+}
@@ -0,0 +1,103 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+/**
+ * Picks camera preview and picture sizes.  Sizes are passed as flat arrays of width, height pairs,
+ * so that the selection does not depend on the camera API the sizes came from; results are pair
+ * indices into those arrays.
+ */
+public final class PreviewSizeSelector {
+    private PreviewSizeSelector() {
+    }
+
+    /**
+     * Selects the preview size closest to the desired size, together with a picture size of the
+     * same aspect ratio.
+     * <p/>
+     * Only preview sizes with a picture size of matching aspect ratio are considered, since on some
+     * hardware a preview without one ends up distorted; if no preview size has one, all preview
+     * sizes are considered without a picture size.  Of those, the one minimizing the sum of the
+     * width and height differences to the desired size wins.
+     *
+     * @return {preview index, picture index}, where the picture index is -1 if there is no
+     * matching picture size, or null if there are no preview sizes
+     */
+    public static int[] selectSizePair(int[] previewSizes, int[] pictureSizes,
+                                       int desiredWidth, int desiredHeight, float aspectRatioTolerance) {
+        int[] selected = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (int i = 0; i < previewSizes.length / 2; ++i) {
+            int picture = findMatchingAspectRatio(previewSizes[2 * i], previewSizes[2 * i + 1],
+                    pictureSizes, aspectRatioTolerance);
+            if (picture < 0) {
+                continue;
+            }
+            int diff = Math.abs(previewSizes[2 * i] - desiredWidth)
+                    + Math.abs(previewSizes[2 * i + 1] - desiredHeight);
+            if (diff < minDiff) {
+                selected = new int[]{i, picture};
+                minDiff = diff;
+            }
+        }
+        if (selected != null) {
+            return selected;
+        }
+
+        for (int i = 0; i < previewSizes.length / 2; ++i) {
+            int diff = Math.abs(previewSizes[2 * i] - desiredWidth)
+                    + Math.abs(previewSizes[2 * i + 1] - desiredHeight);
+            if (diff < minDiff) {
+                selected = new int[]{i, -1};
+                minDiff = diff;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Selects the size whose height is closest to {@code height} among those with the aspect ratio
+     * of {@code height} / {@code width}, or among all sizes if none has it.
+     *
+     * @return the pair index of the size, or -1 if there are no sizes
+     */
+    public static int selectOptimalSize(int[] sizes, int width, int height) {
+        final double ASPECT_TOLERANCE = 0.1;
+        double targetRatio = (double) height / width;
+
+        int optimal = -1;
+        double minDiff = Double.MAX_VALUE;
+        for (int i = 0; i < sizes.length / 2; ++i) {
+            double ratio = (double) sizes[2 * i] / sizes[2 * i + 1];
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(sizes[2 * i + 1] - height) < minDiff) {
+                optimal = i;
+                minDiff = Math.abs(sizes[2 * i + 1] - height);
+            }
+        }
+
+        if (optimal < 0) {
+            minDiff = Double.MAX_VALUE;
+            for (int i = 0; i < sizes.length / 2; ++i) {
+                if (Math.abs(sizes[2 * i + 1] - height) < minDiff) {
+                    optimal = i;
+                    minDiff = Math.abs(sizes[2 * i + 1] - height);
+                }
+            }
+        }
+        return optimal;
+    }
+
+    /**
+     * Returns the pair index of the first size with the aspect ratio of {@code width} x
+     * {@code height}, or -1.
+     */
+    private static int findMatchingAspectRatio(int width, int height, int[] sizes, float tolerance) {
+        float aspectRatio = (float) width / (float) height;
+        for (int i = 0; i < sizes.length / 2; ++i) {
+            float other = (float) sizes[2 * i] / (float) sizes[2 * i + 1];
+            if (Math.abs(aspectRatio - other) < tolerance) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
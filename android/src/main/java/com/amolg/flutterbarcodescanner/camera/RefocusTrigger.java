@@ -0,0 +1,74 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ * Decides when the camera should focus on the region of interest again.
+ * <p/>
+ * Continuous autofocus settles on whatever dominates the scene, which for a small label held in
+ * front of a busy background is the background.  Once nothing has been detected for the refocus
+ * interval, the trigger asks for a focus on the region of interest, and again every interval for
+ * as long as nothing is detected.
+ * <p/>
+ * {@link #instrument(Detector.Processor)} tells the trigger when something is in view; see
+ * {@link ScanMetrics#instrument(Detector.Processor)}.
+ */
+public class RefocusTrigger {
+    private final long mIntervalMillis;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private long mLastActivityMillis = -1;
+
+    /**
+     * @param intervalMillis how long nothing has to be detected before focusing again
+     */
+    public RefocusTrigger(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid refocus interval: " + intervalMillis);
+        }
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Restarts the interval, e.g. when the camera is started.
+     */
+    public void reset(long nowMillis) {
+        synchronized (mLock) {
+            mLastActivityMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Returns whether the camera should focus on the region of interest now.  A {@code true}
+     * result restarts the interval.
+     */
+    public boolean shouldRefocus(long nowMillis) {
+        synchronized (mLock) {
+            if (mLastActivityMillis < 0 || nowMillis - mLastActivityMillis < mIntervalMillis) {
+                return false;
+            }
+            mLastActivityMillis = nowMillis;
+            return true;
+        }
+    }
+
+    /**
+     * Records the result of one frame.
+     */
+    public void recordDetections(int count, long nowMillis) {
+        if (count > 0) {
+            synchronized (mLock) {
+                mLastActivityMillis = nowMillis;
+            }
+        }
+    }
+
+    /**
+     * Wraps the processor detections are delivered to, so that the trigger learns when something
+     * is in view.
+     */
+    public <T> Detector.Processor<T> instrument(Detector.Processor<T> delegate) {
+        return new DetectionObserver<>(delegate, this::recordDetections);
+    }
+}
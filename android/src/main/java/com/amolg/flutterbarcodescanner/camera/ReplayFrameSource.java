@@ -0,0 +1,391 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frame source that replays raw NV21 frames from files at a fixed rate, so that the detection
+ * pipeline can be exercised and measured on machines without a camera.
+ * <p/>
+ * Frames are copied into a small pool of buffers, like the camera preview does.  When the
+ * pipeline still holds every buffer, the frame is dropped.  To measure throughput, wrap the
+ * detector's processor with {@link #instrument(Detector.Processor)}:
+ * <pre>
+ *     ReplayFrameSource replay = new ReplayFrameSource(files, 1600, 1024, Frame.ROTATION_90, 30.0f, 1);
+ *     detector.setProcessor(replay.instrument(new MultiProcessor.Builder&lt;&gt;(factory).build()));
+ *     CameraSource source = new CameraSource.Builder(context, detector).setFrameSource(replay).build();
+ *     source.start();
+ *     replay.awaitCompletion(60000);
+ *     ReplayFrameSource.Report report = replay.getReport();
+ * </pre>
+ */
+public class ReplayFrameSource implements FrameSource {
+    private static final int BUFFER_COUNT = 4;
+
+    private final List<File> mFiles;
+    private final Size mFrameSize;
+    private final int mRotation;
+    private final long mFrameIntervalMillis;
+    private final int mLoops;
+
+    private final Object mLock = new Object();
+    private final ByteBuffer[] mBuffers = new ByteBuffer[BUFFER_COUNT];
+    private final boolean[] mBufferInUse = new boolean[BUFFER_COUNT];
+    private List<byte[]> mFrames;
+    private Thread mReplayThread;
+    private volatile boolean mRunning;
+    private boolean mFinished;
+
+    // Statistics, guarded by mLock.
+    private long mStartMillis;
+    private long mEndMillis;
+    private int mFramesEmitted;
+    private int mFramesDropped;
+    private int mFramesProcessed;
+    private int mDetections;
+    private long[] mLatencies = new long[256];
+    private int mLatencyCount;
+
+    /**
+     * Creates a replay source.
+     *
+     * @param files    raw NV21 frames, one per file, in sensor orientation
+     * @param width    width of the frames in pixels
+     * @param height   height of the frames in pixels
+     * @param rotation rotation needed to make the frames upright, one of {@code Frame.ROTATION_*}
+     * @param fps      rate at which frames are fed to the pipeline
+     * @param loops    how many times the list of files is replayed
+     */
+    public ReplayFrameSource(List<File> files, int width, int height, int rotation, float fps, int loops) {
+        if (files == null || files.isEmpty()) {
+            throw new IllegalArgumentException("No frames supplied.");
+        }
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Invalid fps: " + fps);
+        }
+        mFiles = new ArrayList<>(files);
+        mFrameSize = new Size(width, height);
+        mRotation = rotation;
+        mFrameIntervalMillis = Math.max(1, Math.round(1000.0f / fps));
+        mLoops = Math.max(1, loops);
+    }
+
+    @Override
+    public void start(final FrameCallback callback) throws IOException {
+        synchronized (mLock) {
+            if (mReplayThread != null) {
+                return;
+            }
+            if (mFrames == null) {
+                mFrames = loadFrames();
+            }
+            int frameBytes = frameByteCount();
+            for (int i = 0; i < BUFFER_COUNT; ++i) {
+                if (mBuffers[i] == null) {
+                    mBuffers[i] = ByteBuffer.wrap(new byte[frameBytes]);
+                }
+                mBufferInUse[i] = false;
+            }
+            resetStatistics();
+            mRunning = true;
+            mReplayThread = new Thread(() -> replay(callback), "ReplayFrameSource");
+            mReplayThread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            mRunning = false;
+            thread = mReplayThread;
+            mReplayThread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return mFrameSize;
+    }
+
+    @Override
+    public int getRotation() {
+        return mRotation;
+    }
+
+    @Override
+    public void releaseFrame(ByteBuffer data) {
+        synchronized (mLock) {
+            for (int i = 0; i < BUFFER_COUNT; ++i) {
+                if (mBuffers[i] == data) {
+                    mBufferInUse[i] = false;
+                    mLock.notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getDroppedFrameCount() {
+        synchronized (mLock) {
+            return mFramesDropped;
+        }
+    }
+
+    /**
+     * Wraps a detector processor so that every processed frame and detection is recorded in the
+     * report of this source.
+     */
+    public <T> Detector.Processor<T> instrument(final Detector.Processor<T> delegate) {
+        return new Detector.Processor<T>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<T> detections) {
+                delegate.receiveDetections(detections);
+                recordProcessedFrame(detections.getFrameMetadata().getTimestampMillis(),
+                        detections.getDetectedItems().size());
+            }
+        };
+    }
+
+    /**
+     * Waits until every frame has been replayed and all buffers are back from the pipeline.
+     *
+     * @return {@code true} if the replay completed within the timeout
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        synchronized (mLock) {
+            while (!mFinished || anyBufferInUse()) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the statistics of the current or last replay.
+     */
+    public Report getReport() {
+        synchronized (mLock) {
+            long end = mFinished ? mEndMillis : SystemClock.elapsedRealtime();
+            long[] latencies = Arrays.copyOf(mLatencies, mLatencyCount);
+            Arrays.sort(latencies);
+            return new Report(mFramesEmitted, mFramesDropped, mFramesProcessed, mDetections,
+                    end - mStartMillis, latencies);
+        }
+    }
+
+    /**
+     * Throughput and latency of a replay.  Latency is measured from the moment a frame is handed
+     * to the pipeline until its detections have been delivered to the processor.
+     */
+    public static class Report {
+        private final int mFramesEmitted;
+        private final int mFramesDropped;
+        private final int mFramesProcessed;
+        private final int mDetections;
+        private final long mElapsedMillis;
+        private final long[] mSortedLatencies;
+
+        Report(int framesEmitted, int framesDropped, int framesProcessed, int detections,
+               long elapsedMillis, long[] sortedLatencies) {
+            mFramesEmitted = framesEmitted;
+            mFramesDropped = framesDropped;
+            mFramesProcessed = framesProcessed;
+            mDetections = detections;
+            mElapsedMillis = elapsedMillis;
+            mSortedLatencies = sortedLatencies;
+        }
+
+        public int getFramesEmitted() {
+            return mFramesEmitted;
+        }
+
+        public int getFramesDropped() {
+            return mFramesDropped;
+        }
+
+        public int getFramesProcessed() {
+            return mFramesProcessed;
+        }
+
+        public int getDetections() {
+            return mDetections;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        public float getDetectionsPerSecond() {
+            return mElapsedMillis > 0 ? mDetections * 1000.0f / mElapsedMillis : 0.0f;
+        }
+
+        public float getMeanLatencyMillis() {
+            if (mSortedLatencies.length == 0) {
+                return 0.0f;
+            }
+            long sum = 0;
+            for (long latency : mSortedLatencies) {
+                sum += latency;
+            }
+            return (float) sum / mSortedLatencies.length;
+        }
+
+        /**
+         * Returns the latency below which the given fraction (0 to 1) of frames completed.
+         */
+        public long getLatencyPercentileMillis(float percentile) {
+            if (mSortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * mSortedLatencies.length) - 1;
+            return mSortedLatencies[Math.max(0, Math.min(mSortedLatencies.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return "frames=" + mFramesEmitted + " dropped=" + mFramesDropped
+                    + " processed=" + mFramesProcessed + " detections=" + mDetections
+                    + " detections/s=" + getDetectionsPerSecond()
+                    + " latency mean=" + getMeanLatencyMillis() + "ms"
+                    + " p50=" + getLatencyPercentileMillis(0.5f) + "ms"
+                    + " p95=" + getLatencyPercentileMillis(0.95f) + "ms";
+        }
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private void replay(FrameCallback callback) {
+        long nextFrameMillis = SystemClock.elapsedRealtime();
+        try {
+            for (int loop = 0; loop < mLoops && mRunning; ++loop) {
+                for (byte[] frame : mFrames) {
+                    if (!mRunning) {
+                        return;
+                    }
+                    long delay = nextFrameMillis - SystemClock.elapsedRealtime();
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    nextFrameMillis += mFrameIntervalMillis;
+
+                    ByteBuffer buffer = acquireBuffer();
+                    if (buffer == null) {
+                        continue;
+                    }
+                    System.arraycopy(frame, 0, buffer.array(), 0, frame.length);
+                    callback.onFrame(buffer, SystemClock.elapsedRealtime() - mStartMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } finally {
+            synchronized (mLock) {
+                mFinished = true;
+                mEndMillis = SystemClock.elapsedRealtime();
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        synchronized (mLock) {
+            mFramesEmitted++;
+            for (int i = 0; i < BUFFER_COUNT; ++i) {
+                if (!mBufferInUse[i]) {
+                    mBufferInUse[i] = true;
+                    return mBuffers[i];
+                }
+            }
+            mFramesDropped++;
+            return null;
+        }
+    }
+
+    private void recordProcessedFrame(long timestampMillis, int detections) {
+        synchronized (mLock) {
+            long latency = SystemClock.elapsedRealtime() - mStartMillis - timestampMillis;
+            mFramesProcessed++;
+            mDetections += detections;
+            if (mLatencyCount == mLatencies.length) {
+                mLatencies = Arrays.copyOf(mLatencies, mLatencies.length * 2);
+            }
+            mLatencies[mLatencyCount++] = latency;
+        }
+    }
+
+    private boolean anyBufferInUse() {
+        for (boolean inUse : mBufferInUse) {
+            if (inUse) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resetStatistics() {
+        mStartMillis = SystemClock.elapsedRealtime();
+        mEndMillis = 0;
+        mFinished = false;
+        mFramesEmitted = 0;
+        mFramesDropped = 0;
+        mFramesProcessed = 0;
+        mDetections = 0;
+        mLatencyCount = 0;
+    }
+
+    private int frameByteCount() {
+        return mFrameSize.getWidth() * mFrameSize.getHeight() * 3 / 2;
+    }
+
+    private List<byte[]> loadFrames() throws IOException {
+        int frameBytes = frameByteCount();
+        List<byte[]> frames = new ArrayList<>(mFiles.size());
+        for (File file : mFiles) {
+            byte[] frame = new byte[frameBytes];
+            try (InputStream in = new FileInputStream(file)) {
+                int read = 0;
+                while (read < frameBytes) {
+                    int count = in.read(frame, read, frameBytes - read);
+                    if (count < 0) {
+                        throw new IOException("Frame file is smaller than " + frameBytes + " bytes: " + file);
+                    }
+                    read += count;
+                }
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,193 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import com.google.android.gms.vision.Detector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide counters and latency histograms for the scan pipeline, from opening the camera to
+ * handing the result to Dart.  All methods are thread safe.
+ * <p/>
+ * Latencies are measured with {@link System#nanoTime()}.  The stages are:
+ * <ul>
+ * <li>{@link Stage#CAMERA_OPEN}: {@code CameraSource.start} until the preview runs</li>
+ * <li>{@link Stage#FIRST_FRAME}: {@code CameraSource.start} until the first frame arrives</li>
+ * <li>{@link Stage#DETECTOR}: time spent in the detector per frame</li>
+ * <li>{@link Stage#DETECTION_TO_CALLBACK}: detections reaching the processor until the
+ * activity's {@code onBarcodeDetected}</li>
+ * <li>{@link Stage#RESULT_DELIVERY}: the activity setting its result until the result is
+ * handed to Dart</li>
+ * </ul>
+ */
+public final class ScanMetrics {
+    private static final ScanMetrics sInstance = new ScanMetrics();
+
+    public enum Stage {
+        CAMERA_OPEN("cameraOpen"),
+        FIRST_FRAME("firstFrame"),
+        DETECTOR("detector"),
+        DETECTION_TO_CALLBACK("detectionToCallback"),
+        RESULT_DELIVERY("resultDelivery");
+
+        private final String mKey;
+
+        Stage(String key) {
+            mKey = key;
+        }
+    }
+
+    public enum Counter {
+        /** Frames handed to the pipeline by the frame source. */
+        FRAMES_DELIVERED("framesDelivered"),
+        /** Frames the source could not deliver because every buffer was held. */
+        FRAMES_DROPPED("framesDropped"),
+        /** Delivered frames replaced by a newer one before a worker took them. */
+        FRAMES_SKIPPED("framesSkipped"),
+        /** Delivered frames the frame rate governor left out while idle. */
+        FRAMES_THROTTLED("framesThrottled"),
+        /** Frames the sharpness gate left out as too blurry to decode. */
+        FRAMES_BLURRY("framesBlurry"),
+        /** Frames that went through the detector. */
+        FRAMES_PROCESSED("framesProcessed"),
+        /** Frames detected again at full resolution after the downscaled pass found nothing. */
+        FULL_RESOLUTION_RETRIES("fullResolutionRetries"),
+        /** Frames on which the detector threw. */
+        DETECTOR_ERRORS("detectorErrors");
+
+        private final String mKey;
+
+        Counter(String key) {
+            mKey = key;
+        }
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.values().length];
+    private final long[] mCounters = new long[Counter.values().length];
+
+    // When the detections being delivered on this thread reached the processor.
+    private final ThreadLocal<Long> mDetectionsDeliveredNanos = new ThreadLocal<>();
+    private volatile long mResultSetNanos = -1;
+
+    private ScanMetrics() {
+        for (int i = 0; i < mHistograms.length; ++i) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static ScanMetrics get() {
+        return sInstance;
+    }
+
+    public void record(Stage stage, long elapsedNanos) {
+        mHistograms[stage.ordinal()].record(elapsedNanos);
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long amount) {
+        synchronized (mCounters) {
+            mCounters[counter.ordinal()] += amount;
+        }
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        synchronized (mCounters) {
+            return mCounters[counter.ordinal()];
+        }
+    }
+
+    /**
+     * Wraps the processor detections are delivered to, so that the time until
+     * {@link #recordDetectionCallback()} can be measured.
+     * <p/>
+     * This is how all parts of the pipeline that learn from detections are fed: their
+     * {@code instrument} method returns a processor that looks at the detections of each frame on
+     * the detector thread and passes them on to its delegate unchanged.  Such wrappers nest, so
+     * the processor handed to the detector is the app's own one with every wrapper around it.
+     * Wrappers that only need to know whether something is in view use {@link DetectionObserver}.
+     */
+    public <T> Detector.Processor<T> instrument(final Detector.Processor<T> delegate) {
+        return new Detector.Processor<T>() {
+            @Override
+            public void release() {
+                delegate.release();
+            }
+
+            @Override
+            public void receiveDetections(Detector.Detections<T> detections) {
+                mDetectionsDeliveredNanos.set(System.nanoTime());
+                try {
+                    delegate.receiveDetections(detections);
+                } finally {
+                    mDetectionsDeliveredNanos.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Records {@link Stage#DETECTION_TO_CALLBACK}.  Must be called on the thread delivering the
+     * detections, i.e. from a tracker callback.
+     */
+    public void recordDetectionCallback() {
+        Long delivered = mDetectionsDeliveredNanos.get();
+        if (delivered != null) {
+            record(Stage.DETECTION_TO_CALLBACK, System.nanoTime() - delivered);
+        }
+    }
+
+    /**
+     * Marks the moment the scan result was set, the start of {@link Stage#RESULT_DELIVERY}.
+     */
+    public void markResultSet() {
+        mResultSetNanos = System.nanoTime();
+    }
+
+    /**
+     * Records {@link Stage#RESULT_DELIVERY} once the result has been handed over.
+     */
+    public void recordResultDelivered() {
+        long resultSet = mResultSetNanos;
+        if (resultSet >= 0) {
+            record(Stage.RESULT_DELIVERY, System.nanoTime() - resultSet);
+            mResultSetNanos = -1;
+        }
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        synchronized (mCounters) {
+            for (int i = 0; i < mCounters.length; ++i) {
+                mCounters[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of all metrics as a map of standard message codec types, with the
+     * counters under {@code "counters"} and the histograms under {@code "latencies"}.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> counters = new HashMap<>();
+        for (Counter counter : Counter.values()) {
+            counters.put(counter.mKey, getCount(counter));
+        }
+        Map<String, Object> latencies = new HashMap<>();
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage.mKey, getHistogram(stage).toMap());
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("counters", counters);
+        map.put("latencies", latencies);
+        return map;
+    }
+}
@@ -0,0 +1,111 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Skips frames too blurry for the detector to decode, e.g. while the camera refocuses or the
+ * device moves.
+ * <p/>
+ * Sharpness is the gradient energy of the luma plane, the mean squared difference between
+ * neighbouring pixels, sampled on a sparse grid of about {@link #SAMPLES_PER_SIDE} points per
+ * side.  Blur removes exactly these differences.  Since the energy also depends on the scene and
+ * the light, the threshold is relative: a frame is skipped when it reaches less than the given
+ * fraction of a reference, which follows the sharpest recent frame and decays so that it adapts
+ * when the scene changes.  After a number of skips in a row a frame is let through regardless, so
+ * detection never stalls.
+ * <p/>
+ * Thread safe, so detection workers can share one gate.
+ */
+public class SharpnessGate {
+    private static final int SAMPLES_PER_SIDE = 64;
+    private static final float REFERENCE_DECAY = 0.98f;
+
+    private final float mRelativeThreshold;
+    private final int mMaxConsecutiveSkips;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private float mReference;
+    private int mConsecutiveSkips;
+
+    /**
+     * @param relativeThreshold   fraction (0 to 1) of the reference sharpness a frame must reach
+     * @param maxConsecutiveSkips how many frames in a row may be skipped at most
+     */
+    public SharpnessGate(float relativeThreshold, int maxConsecutiveSkips) {
+        if (relativeThreshold < 0 || relativeThreshold > 1) {
+            throw new IllegalArgumentException("Invalid relative threshold: " + relativeThreshold);
+        }
+        mRelativeThreshold = relativeThreshold;
+        mMaxConsecutiveSkips = Math.max(0, maxConsecutiveSkips);
+    }
+
+    /**
+     * Forgets the reference sharpness, e.g. when the camera is started.
+     */
+    public void reset() {
+        synchronized (mLock) {
+            mReference = 0;
+            mConsecutiveSkips = 0;
+        }
+    }
+
+    /**
+     * Returns whether the luma plane at the start of {@code frame} is sharp enough to detect on.
+     */
+    public boolean isSharpEnough(ByteBuffer frame, int width, int height) {
+        return isSharpEnough(measure(frame, width, height));
+    }
+
+    /**
+     * Returns whether a frame of the given sharpness, as returned by {@link #measure}, is sharp
+     * enough to detect on, and updates the reference.
+     */
+    public boolean isSharpEnough(float sharpness) {
+        synchronized (mLock) {
+            mReference = Math.max(sharpness, mReference * REFERENCE_DECAY);
+            if (sharpness >= mReference * mRelativeThreshold || mConsecutiveSkips >= mMaxConsecutiveSkips) {
+                mConsecutiveSkips = 0;
+                return true;
+            }
+            mConsecutiveSkips++;
+            return false;
+        }
+    }
+
+    /**
+     * Returns the gradient energy of the {@code width} x {@code height} luma plane at the start of
+     * {@code frame}, sampled on a sparse grid.
+     */
+    public static float measure(ByteBuffer frame, int width, int height) {
+        int step = Math.max(2, Math.min(width, height) / SAMPLES_PER_SIDE);
+        long energy = 0;
+        int count = 0;
+        if (frame.hasArray()) {
+            byte[] data = frame.array();
+            int offset = frame.arrayOffset();
+            for (int y = step / 2; y < height - 1; y += step) {
+                int row = offset + y * width;
+                for (int x = step / 2; x < width - 1; x += step) {
+                    int pixel = data[row + x] & 0xff;
+                    int dx = (data[row + x + 1] & 0xff) - pixel;
+                    int dy = (data[row + width + x] & 0xff) - pixel;
+                    energy += dx * dx + dy * dy;
+                    count++;
+                }
+            }
+        } else {
+            for (int y = step / 2; y < height - 1; y += step) {
+                int row = y * width;
+                for (int x = step / 2; x < width - 1; x += step) {
+                    int pixel = frame.get(row + x) & 0xff;
+                    int dx = (frame.get(row + x + 1) & 0xff) - pixel;
+                    int dy = (frame.get(row + width + x) & 0xff) - pixel;
+                    energy += dx * dx + dy * dy;
+                    count++;
+                }
+            }
+        }
+        return count > 0 ? (float) energy / count : 0.0f;
+    }
+}
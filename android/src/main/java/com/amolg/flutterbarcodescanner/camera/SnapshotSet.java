@@ -0,0 +1,89 @@
+package com.amolg.flutterbarcodescanner.camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A set of items shared between detector threads, which change it, and the UI thread, which
+ * walks it, without either ever blocking the other.
+ * <p/>
+ * The items are kept in an immutable list that is replaced atomically on each change, so a
+ * {@link #snapshot()} stays valid and consistent for as long as it is used, and reading one
+ * neither locks nor allocates.  Changes copy the list and retry if another thread got in first.
+ * Adding an item that is already present, which trackers do on every frame, returns without
+ * copying.  Items are compared by identity.  Meant for small sets, such as the graphics of the
+ * codes in view.
+ */
+public class SnapshotSet<T> {
+    private final AtomicReference<List<T>> mItems =
+            new AtomicReference<>(Collections.<T>emptyList());
+
+    /**
+     * Returns the current items in the order they were added.  The list cannot be modified and
+     * does not change when the set does.
+     */
+    public List<T> snapshot() {
+        return mItems.get();
+    }
+
+    /**
+     * @return false if the item was already in the set
+     */
+    public boolean add(T item) {
+        while (true) {
+            List<T> current = mItems.get();
+            if (indexOf(current, item) >= 0) {
+                return false;
+            }
+            ArrayList<T> next = new ArrayList<>(current.size() + 1);
+            next.addAll(current);
+            next.add(item);
+            if (mItems.compareAndSet(current, Collections.unmodifiableList(next))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return false if the item was not in the set
+     */
+    public boolean remove(T item) {
+        while (true) {
+            List<T> current = mItems.get();
+            int index = indexOf(current, item);
+            if (index < 0) {
+                return false;
+            }
+            List<T> next;
+            if (current.size() == 1) {
+                next = Collections.emptyList();
+            } else {
+                ArrayList<T> copy = new ArrayList<>(current);
+                copy.remove(index);
+                next = Collections.unmodifiableList(copy);
+            }
+            if (mItems.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    public void clear() {
+        mItems.set(Collections.<T>emptyList());
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    private static <T> int indexOf(List<T> items, T item) {
+        for (int i = 0; i < items.size(); ++i) {
+            if (items.get(i) == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,10 +1,39 @@
 import 'dart:async';
+import 'dart:io' show Platform;
+import 'dart:typed_data' show Int32List, Uint8List;
+import 'dart:ui' show Offset, Rect, Size;
 
 import 'package:flutter/services.dart';
+import 'package:flutter/widgets.dart' show Texture, Widget;
 
 /// Scan mode which is either QR code or BARCODE
 enum ScanMode { QR, BARCODE, DEFAULT }
 
+/// Barcode symbologies the scanner can be restricted to
+enum BarcodeFormat {
+  CODE_128,
+  CODE_39,
+  CODE_93,
+  CODABAR,
+  DATA_MATRIX,
+  EAN_13,
+  EAN_8,
+  ITF,
+  QR_CODE,
+  UPC_A,
+  UPC_E,
+  PDF417,
+  AZTEC
+}
+
+/// Barcode decoder used on Android
+///
+/// [GMS] is the Google Play Services barcode detector and [ZXING] the pure
+/// Java ZXing decoder bundled with the plugin, which works without Play
+/// Services. [AUTO] uses Play Services when it is available and ZXing
+/// otherwise.
+enum DecoderEngine { AUTO, GMS, ZXING }
+
 /// Provides access to the barcode scanner.
 ///
 /// This class is an interface between the native Android and iOS classes and a
@@ -16,32 +45,166 @@ class FlutterBarcodeScanner {
   static const EventChannel _eventChannel =
       EventChannel('flutter_barcode_scanner_receiver');
 
+  static const EventChannel _imageEventChannel =
+      EventChannel('flutter_barcode_scanner_images');
+
   static Stream? _onBarcodeReceiver;
 
+  static Stream? _onImageResult;
+  static int _nextImageBatchId = 0;
+
   /// Scan with the camera until a barcode is identified, then return.
   ///
   /// Shows a scan line with [lineColor] over a scan window. A flash icon is
   /// displayed if [isShowFlashIcon] is true. The text of the cancel button can
   /// be customized with the [cancelButtonText] string.
+  ///
+  /// On Android only the pixels inside the scan window are passed to the
+  /// detector. [scanWindow] overrides the default window with a rectangle in
+  /// fractions (0.0 to 1.0) of the camera preview.
+  ///
+  /// [ScanMode.QR] only looks for QR codes and [ScanMode.BARCODE] only for 1D
+  /// barcodes. Pass [formats] to search for an explicit set of symbologies.
+  ///
+  /// Set [useCamera2] to use the Android Camera2 API where the device fully
+  /// supports it. Other devices keep using the legacy camera API.
+  ///
+  /// On Android, [detectionWorkers] greater than one decodes frames on that
+  /// many threads in parallel, which helps on multi-core devices.
+  ///
+  /// On Android, [keepCameraAliveMillis] greater than zero keeps the camera
+  /// open for that long after the scan, so that a scan started within that
+  /// window does not have to open the camera again. Useful when scanning
+  /// items back to back.
+  ///
+  /// [decoderEngine] selects the barcode decoder on Android.
+  ///
+  /// On Android, [autoTorch] switches the torch on while the scan window is
+  /// too dark to decode, and off again once it is bright. Tapping the flash
+  /// icon hands the torch back to the user.
+  ///
+  /// On Android, throws a [PlatformException] with code `CAMERA_ERROR` if the
+  /// camera cannot be opened, e.g. because another app holds it.
   static Future<String> scanBarcode(String lineColor, String cancelButtonText,
-      bool isShowFlashIcon, ScanMode scanMode) async {
+      bool isShowFlashIcon, ScanMode scanMode,
+      {Rect? scanWindow,
+      List<BarcodeFormat>? formats,
+      bool useCamera2 = false,
+      int detectionWorkers = 1,
+      int keepCameraAliveMillis = 0,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO,
+      bool autoTorch = false}) async {
+    final params = _singleScanParams(lineColor, cancelButtonText,
+        isShowFlashIcon, scanMode, scanWindow, formats, useCamera2,
+        detectionWorkers, keepCameraAliveMillis, decoderEngine, autoTorch);
+
+    /// Get barcode scan result
+    final barcodeResult =
+        await _channel.invokeMethod('scanBarcode', params) ?? '';
+    return barcodeResult;
+  }
+
+  /// Same as [scanBarcode], but returns the barcode with its format, raw
+  /// bytes, position in the preview and the frame it was found in, or null if
+  /// the user cancelled.
+  ///
+  /// The raw bytes arrive as binary data, so payloads such as PDF417 driver
+  /// licences or GS1 DataMatrix codes can be parsed without decoding the
+  /// value again. On iOS only [BarcodeResult.rawValue] is set.
+  static Future<BarcodeResult?> scanBarcodeResult(String lineColor,
+      String cancelButtonText, bool isShowFlashIcon, ScanMode scanMode,
+      {Rect? scanWindow,
+      List<BarcodeFormat>? formats,
+      bool useCamera2 = false,
+      int detectionWorkers = 1,
+      int keepCameraAliveMillis = 0,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO,
+      bool autoTorch = false}) async {
+    final params = _singleScanParams(lineColor, cancelButtonText,
+        isShowFlashIcon, scanMode, scanWindow, formats, useCamera2,
+        detectionWorkers, keepCameraAliveMillis, decoderEngine, autoTorch);
+    params['detailedResult'] = true;
+
+    final result = await _channel.invokeMethod('scanBarcode', params);
+    if (result == null || result == '-1') {
+      return null;
+    }
+    return _toBarcodeResult(result);
+  }
+
+  /// Scans with the camera like [scanBarcode], but returns every barcode
+  /// in view instead of the first one, e.g. all the codes on a pallet label.
+  /// Android only; on iOS the first barcode is returned.
+  ///
+  /// Codes are collected from the first frame with a barcode until
+  /// [windowMillis] later, which gives codes that take a little longer to
+  /// decode a chance to be found. A window of 0 returns the codes of that
+  /// first frame. Each code is returned once, as a [BarcodeResult] with its
+  /// position in the preview. The list is empty if the user cancelled.
+  ///
+  /// The other arguments work as for [scanBarcode].
+  static Future<List<BarcodeResult>> scanBarcodes(String lineColor,
+      String cancelButtonText, bool isShowFlashIcon, ScanMode scanMode,
+      {int windowMillis = 300,
+      Rect? scanWindow,
+      List<BarcodeFormat>? formats,
+      bool useCamera2 = false,
+      int detectionWorkers = 1,
+      int keepCameraAliveMillis = 0,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO,
+      bool autoTorch = false}) async {
+    final params = _singleScanParams(lineColor, cancelButtonText,
+        isShowFlashIcon, scanMode, scanWindow, formats, useCamera2,
+        detectionWorkers, keepCameraAliveMillis, decoderEngine, autoTorch);
+    params['multiCaptureWindowMillis'] = windowMillis;
+
+    final result = await _channel.invokeMethod('scanBarcode', params);
+    if (result == null || result == '-1') {
+      return <BarcodeResult>[];
+    }
+    if (result is List) {
+      return result.map(_toBarcodeResult).toList();
+    }
+    return <BarcodeResult>[_toBarcodeResult(result)];
+  }
+
+  static Map<String, dynamic> _singleScanParams(
+      String lineColor,
+      String cancelButtonText,
+      bool isShowFlashIcon,
+      ScanMode scanMode,
+      Rect? scanWindow,
+      List<BarcodeFormat>? formats,
+      bool useCamera2,
+      int detectionWorkers,
+      int keepCameraAliveMillis,
+      DecoderEngine decoderEngine,
+      bool autoTorch) {
     if (cancelButtonText.isEmpty) {
       cancelButtonText = 'Cancel';
     }
 
     // Pass params to the plugin
-    Map params = <String, dynamic>{
+    return <String, dynamic>{
       'lineColor': lineColor,
       'cancelButtonText': cancelButtonText,
       'isShowFlashIcon': isShowFlashIcon,
       'isContinuousScan': false,
-      'scanMode': scanMode.index
+      'autoTorch': autoTorch,
+      'useCamera2': useCamera2,
+      'detectionWorkers': detectionWorkers,
+      'keepCameraAliveMillis': keepCameraAliveMillis,
+      'decoderEngine': _engineName(decoderEngine),
+      'scanMode': scanMode.index,
+      if (scanWindow != null)
+        'scanWindow': <double>[
+          scanWindow.left,
+          scanWindow.top,
+          scanWindow.right,
+          scanWindow.bottom
+        ],
+      if (formats != null) 'formats': _formatNames(formats)
     };
-
-    /// Get barcode scan result
-    final barcodeResult =
-        await _channel.invokeMethod('scanBarcode', params) ?? '';
-    return barcodeResult;
   }
 
   /// Returns a continuous stream of barcode scans until the user cancels the
@@ -51,8 +214,39 @@ class FlutterBarcodeScanner {
   /// displayed if [isShowFlashIcon] is true. The text of the cancel button can
   /// be customized with the [cancelButtonText] string. Returns a stream of
   /// detected barcode strings.
+  ///
+  /// If [coalesceWindowMillis] is greater than zero, barcodes detected within
+  /// that many milliseconds of each other are delivered together and the
+  /// stream emits lists of barcode strings instead.
+  ///
+  /// If [duplicateTtlMillis] is greater than zero, a barcode with the same
+  /// format and value as one already emitted within that many milliseconds is
+  /// not emitted again, even if it left the view in between.
+  ///
+  /// On Android, [autoZoom] zooms in on codes that cover too little of the
+  /// scan window, e.g. labels on a high shelf, so that the following scans
+  /// decode faster. The zoom goes back to none when the scan ends.
+  ///
+  /// On Android, [detailedResults] makes the stream emit [BarcodeResult]s,
+  /// or lists of them, instead of barcode strings.
+  ///
+  /// A scan that fails to start, e.g. with a `CAMERA_ERROR` on Android, adds
+  /// its [PlatformException] to the stream as an error.
+  ///
+  /// [useCamera2], [detectionWorkers], [keepCameraAliveMillis],
+  /// [decoderEngine] and [autoTorch] work as for [scanBarcode].
   static Stream? getBarcodeStreamReceiver(String lineColor,
-      String cancelButtonText, bool isShowFlashIcon, ScanMode scanMode) {
+      String cancelButtonText, bool isShowFlashIcon, ScanMode scanMode,
+      {List<BarcodeFormat>? formats,
+      int coalesceWindowMillis = 0,
+      int duplicateTtlMillis = 0,
+      bool useCamera2 = false,
+      int detectionWorkers = 1,
+      int keepCameraAliveMillis = 0,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO,
+      bool autoTorch = false,
+      bool autoZoom = false,
+      bool detailedResults = false}) {
     if (cancelButtonText.isEmpty) {
       cancelButtonText = 'Cancel';
     }
@@ -63,13 +257,335 @@ class FlutterBarcodeScanner {
       'cancelButtonText': cancelButtonText,
       'isShowFlashIcon': isShowFlashIcon,
       'isContinuousScan': true,
-      'scanMode': scanMode.index
+      'detailedResult': detailedResults,
+      'autoTorch': autoTorch,
+      'autoZoom': autoZoom,
+      'coalesceWindowMillis': coalesceWindowMillis,
+      'duplicateTtlMillis': duplicateTtlMillis,
+      'useCamera2': useCamera2,
+      'detectionWorkers': detectionWorkers,
+      'keepCameraAliveMillis': keepCameraAliveMillis,
+      'decoderEngine': _engineName(decoderEngine),
+      'scanMode': scanMode.index,
+      if (formats != null) 'formats': _formatNames(formats)
     };
 
-    // Invoke method to open camera, and then create an event channel which will
-    // return a stream
-    _channel.invokeMethod('scanBarcode', params);
+    // Create an event channel which will return a stream, and then invoke
+    // method to open camera. Nobody awaits the call, so its errors go to the
+    // stream.
+    _onBarcodeReceiver ??= _eventChannel.receiveBroadcastStream();
+    final receiver = detailedResults
+        ? _onBarcodeReceiver!.map(_toBarcodeResults)
+        : _onBarcodeReceiver!;
+    final controller = StreamController<dynamic>.broadcast();
+    StreamSubscription? subscription;
+    controller.onListen = () {
+      subscription =
+          receiver.listen(controller.add, onError: controller.addError);
+    };
+    controller.onCancel = () => subscription?.cancel();
+    _channel
+        .invokeMethod('scanBarcode', params)
+        .catchError((Object error, StackTrace stackTrace) {
+      controller.addError(error, stackTrace);
+    });
+    return controller.stream;
+  }
+
+  /// Sets up the Android scanner ahead of a scan, so that the next
+  /// [scanBarcode] or [getBarcodeStreamReceiver] call starts faster.
+  ///
+  /// Builds the barcode detector and, if the camera permission has already
+  /// been granted, opens the camera in the background. The camera is closed
+  /// again if no scan follows within ten seconds; the detector is kept and
+  /// reused by later scans. The arguments must match those of the scan for
+  /// the prepared scanner to be used, [decoderEngine] included. Does nothing
+  /// on iOS.
+  static Future<void> prepareScanner(ScanMode scanMode,
+      {List<BarcodeFormat>? formats,
+      bool useCamera2 = false,
+      int detectionWorkers = 1,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO}) async {
+    if (!Platform.isAndroid) {
+      return;
+    }
+    await _channel.invokeMethod('prepareScanner', <String, dynamic>{
+      'scanMode': scanMode.index,
+      'useCamera2': useCamera2,
+      'detectionWorkers': detectionWorkers,
+      'decoderEngine': _engineName(decoderEngine),
+      if (formats != null) 'formats': _formatNames(formats)
+    });
+  }
+
+  /// Returns latency and frame counters of the Android scan pipeline,
+  /// accumulated since the app started or the last reset.
+  ///
+  /// The map holds `counters` (frames delivered, dropped, skipped, throttled,
+  /// blurry, processed, full resolution retries and detector errors) and
+  /// `latencies`, a summary per stage with count, mean, p50, p95, p99 and max
+  /// in milliseconds. Stages are `cameraOpen`, `firstFrame`, `detector`,
+  /// `detectionToCallback` and `resultDelivery`. Pass [reset] to clear the
+  /// metrics after reading them. Returns an empty map on iOS.
+  static Future<Map<String, dynamic>> getScanMetrics(
+      {bool reset = false}) async {
+    if (!Platform.isAndroid) {
+      return <String, dynamic>{};
+    }
+    final metrics = await _channel
+        .invokeMapMethod<String, dynamic>('getScanMetrics', {'reset': reset});
+    return metrics ?? <String, dynamic>{};
+  }
+
+  /// Starts a continuous scan shown inside the app instead of in a scanner
+  /// screen of its own. Android only; throws [UnsupportedError] on iOS.
+  ///
+  /// The camera preview is rendered into a Flutter texture, which
+  /// [EmbeddedScan.buildPreview] shows as a widget, and detected barcodes are
+  /// emitted by [EmbeddedScan.barcodes]. Call [EmbeddedScan.stop] when done.
+  /// The app must have been granted the camera permission; otherwise a
+  /// [PlatformException] with code `PERMISSION_DENIED` is thrown.
+  ///
+  /// [scanWindow] is given in fractions of the preview as for [scanBarcode].
+  /// The other arguments work as for [getBarcodeStreamReceiver].
+  static Future<EmbeddedScan> startEmbeddedScan(ScanMode scanMode,
+      {Rect? scanWindow,
+      List<BarcodeFormat>? formats,
+      int coalesceWindowMillis = 0,
+      int duplicateTtlMillis = 0,
+      bool useCamera2 = false,
+      int detectionWorkers = 1,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO,
+      bool autoTorch = false,
+      bool autoZoom = false,
+      bool detailedResults = false}) async {
+    if (!Platform.isAndroid) {
+      throw UnsupportedError('Embedded scanning is only available on Android');
+    }
+    final started = await _channel.invokeMapMethod<String, dynamic>(
+        'startEmbeddedScan', <String, dynamic>{
+      'scanMode': scanMode.index,
+      'coalesceWindowMillis': coalesceWindowMillis,
+      'duplicateTtlMillis': duplicateTtlMillis,
+      'useCamera2': useCamera2,
+      'detectionWorkers': detectionWorkers,
+      'decoderEngine': _engineName(decoderEngine),
+      'autoTorch': autoTorch,
+      'autoZoom': autoZoom,
+      'detailedResult': detailedResults,
+      if (scanWindow != null)
+        'scanWindow': <double>[
+          scanWindow.left,
+          scanWindow.top,
+          scanWindow.right,
+          scanWindow.bottom
+        ],
+      if (formats != null) 'formats': _formatNames(formats)
+    });
     _onBarcodeReceiver ??= _eventChannel.receiveBroadcastStream();
-    return _onBarcodeReceiver;
+    return EmbeddedScan._(
+        started!['textureId'] as int,
+        Size((started['previewWidth'] as int).toDouble(),
+            (started['previewHeight'] as int).toDouble()),
+        detailedResults
+            ? _onBarcodeReceiver!.map(_toBarcodeResults)
+            : _onBarcodeReceiver!);
+  }
+
+  /// Decodes the barcodes in a batch of image files, e.g. photos of
+  /// documents. Android only; throws [UnsupportedError] on iOS.
+  ///
+  /// The files are decoded in parallel on a small thread pool. Large images
+  /// are subsampled so that neither side exceeds [maxImageSize] pixels, which
+  /// bounds memory use. The returned stream emits one [ImageScanResult] per
+  /// file as soon as it is decoded, so not necessarily in the order of
+  /// [paths], and closes once every file has been reported.
+  ///
+  /// [scanMode], [formats] and [decoderEngine] select the symbologies and
+  /// the decoder as for [scanBarcode].
+  static Stream<ImageScanResult> scanImages(List<String> paths,
+      {ScanMode scanMode = ScanMode.DEFAULT,
+      List<BarcodeFormat>? formats,
+      DecoderEngine decoderEngine = DecoderEngine.AUTO,
+      int maxImageSize = 2048}) {
+    if (!Platform.isAndroid) {
+      throw UnsupportedError('Image scanning is only available on Android');
+    }
+    final batchId = _nextImageBatchId++;
+    final controller = StreamController<ImageScanResult>();
+    StreamSubscription? subscription;
+    var received = 0;
+    var done = false;
+
+    void closeIfComplete() {
+      if (done && received >= paths.length) {
+        subscription?.cancel();
+        controller.close();
+      }
+    }
+
+    controller.onListen = () {
+      _onImageResult ??= _imageEventChannel.receiveBroadcastStream();
+      subscription = _onImageResult!.listen((event) {
+        final result = Map<String, dynamic>.from(event as Map);
+        if (result['batchId'] != batchId) {
+          return;
+        }
+        received++;
+        controller.add(ImageScanResult._fromMap(result));
+        closeIfComplete();
+      });
+      _channel.invokeMethod('scanImages', <String, dynamic>{
+        'batchId': batchId,
+        'paths': paths,
+        'scanMode': scanMode.index,
+        'decoderEngine': _engineName(decoderEngine),
+        'maxImageSize': maxImageSize,
+        if (formats != null) 'formats': _formatNames(formats)
+      }).then((_) {
+        done = true;
+        closeIfComplete();
+      }, onError: (Object error) {
+        controller.addError(error);
+        subscription?.cancel();
+        controller.close();
+      });
+    };
+    controller.onCancel = () => subscription?.cancel();
+    return controller.stream;
+  }
+
+  /// Converts a stream event of detailed results, a single result or a
+  /// coalesced list of them.
+  static dynamic _toBarcodeResults(dynamic event) => event is List
+      ? event.map(_toBarcodeResult).toList()
+      : _toBarcodeResult(event);
+
+  static BarcodeResult _toBarcodeResult(dynamic result) => result is Map
+      ? BarcodeResult._fromMap(Map<String, dynamic>.from(result))
+      : BarcodeResult._fromValue(result as String);
+
+  static List<String> _formatNames(List<BarcodeFormat> formats) =>
+      formats.map((format) => format.toString().split('.').last).toList();
+
+  static String _engineName(DecoderEngine engine) =>
+      engine.toString().split('.').last;
+}
+
+/// A running scan started by [FlutterBarcodeScanner.startEmbeddedScan].
+class EmbeddedScan {
+  EmbeddedScan._(this.textureId, this.previewSize, this.barcodes);
+
+  /// Id of the Flutter texture the camera preview is rendered into.
+  final int textureId;
+
+  /// Size of the upright camera preview in pixels, for sizing the preview
+  /// widget with the right aspect ratio.
+  final Size previewSize;
+
+  /// Detected barcode strings, or lists of them if a coalesce window is set.
+  /// [BarcodeResult]s instead of strings if detailed results were asked for.
+  final Stream barcodes;
+
+  /// Returns a widget showing the camera preview.
+  Widget buildPreview() => Texture(textureId: textureId);
+
+  /// Stops the scan and releases the texture.
+  ///
+  /// [keepCameraAliveMillis] greater than zero keeps the camera open for that
+  /// long, so that a scan started within that window starts faster.
+  Future<void> stop({int keepCameraAliveMillis = 0}) =>
+      FlutterBarcodeScanner._channel.invokeMethod('stopEmbeddedScan',
+          <String, dynamic>{'keepCameraAliveMillis': keepCameraAliveMillis});
+}
+
+/// The barcodes found in one file by [FlutterBarcodeScanner.scanImages].
+class ImageScanResult {
+  ImageScanResult._fromMap(Map<String, dynamic> map)
+      : path = map['path'] as String,
+        barcodes = List<String>.from(map['barcodes'] as List),
+        error = map['error'] as String?;
+
+  /// The file the barcodes were read from.
+  final String path;
+
+  /// The raw values of the barcodes found, empty if there were none.
+  final List<String> barcodes;
+
+  /// Why the file could not be scanned, e.g. because it is not an image, or
+  /// null if it was.
+  final String? error;
+}
+
+/// A barcode with the details of where and when it was detected, as returned
+/// by [FlutterBarcodeScanner.scanBarcodeResult] and
+/// [FlutterBarcodeScanner.scanBarcodes].
+class BarcodeResult {
+  BarcodeResult._fromMap(Map<String, dynamic> map)
+      : format = _formatFromName(map['format'] as String?),
+        rawValue = map['rawValue'] as String? ?? '',
+        rawBytes = map['rawBytes'] as Uint8List?,
+        cornerPoints = _toPoints(map['cornerPoints'] as Int32List?),
+        boundingBox = _toRect(map['boundingBox'] as Int32List?),
+        frameId = map['frameId'] as int?,
+        timestampMillis = map['timestampMillis'] as int?;
+
+  BarcodeResult._fromValue(this.rawValue)
+      : format = null,
+        rawBytes = null,
+        cornerPoints = const <Offset>[],
+        boundingBox = null,
+        frameId = null,
+        timestampMillis = null;
+
+  /// The symbology, or null if it is not known.
+  final BarcodeFormat? format;
+
+  /// The value as text.
+  final String rawValue;
+
+  /// The bytes encoded in the barcode, or null if the decoder did not
+  /// provide them.
+  ///
+  /// With the ZXing engine these are the byte segments of the code where it
+  /// has any, and otherwise [rawValue] encoded as UTF-8, e.g. for 1D codes
+  /// and numeric QR codes.
+  final Uint8List? rawBytes;
+
+  /// The corners of the barcode in pixels of the upright camera preview,
+  /// empty if unknown.
+  final List<Offset> cornerPoints;
+
+  /// The box around [cornerPoints], or null if unknown.
+  final Rect? boundingBox;
+
+  /// Id of the camera frame the barcode was first detected in.
+  final int? frameId;
+
+  /// Timestamp of that frame in milliseconds.
+  final int? timestampMillis;
+
+  static BarcodeFormat? _formatFromName(String? name) {
+    for (final format in BarcodeFormat.values) {
+      if (format.toString().split('.').last == name) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  static List<Offset> _toPoints(Int32List? points) {
+    if (points == null) {
+      return const <Offset>[];
+    }
+    return <Offset>[
+      for (var i = 0; i + 1 < points.length; i += 2)
+        Offset(points[i].toDouble(), points[i + 1].toDouble())
+    ];
   }
+
+  static Rect? _toRect(Int32List? box) => box == null || box.length != 4
+      ? null
+      : Rect.fromLTRB(box[0].toDouble(), box[1].toDouble(), box[2].toDouble(),
+          box[3].toDouble());
 }